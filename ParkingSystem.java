@@ -1,7 +1,21 @@
 import java.time.*;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.concurrent.locks.ReentrantLock;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 
 public class ParkingSystem {
     private static final String BLUE = "\u001B[34m";
@@ -15,8 +29,27 @@ public class ParkingSystem {
     private static final DateTimeFormatter TF = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
     private static final DateTimeFormatter PRINTTF = DateTimeFormatter.ofPattern("MMM dd yyyy | hh:mm:ss a");
 
-    public static void main(String[] args) {
-        ParkingLot lot = new ParkingLot();
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--bench")) { Benchmarks.run(Arrays.copyOfRange(args, 1, args.length)); return; }
+        if (args.length > 0 && args[0].equals("--stress")) { if (!StressTest.run(Arrays.copyOfRange(args, 1, args.length))) System.exit(1); return; }
+        if (args.length > 0 && args[0].equals("--crash")) { if (!CrashTest.run(Arrays.copyOfRange(args, 1, args.length))) System.exit(1); return; }
+        if (args.length > 0 && args[0].equals("--simulate")) { TrafficSimulator.run(Arrays.copyOfRange(args, 1, args.length)); return; }
+        ParkingLot lot = new ParkingLot(Paths.get("parking-data"), LotTopology.loadOrDefault(Paths.get("parking-topology.conf")), Tariff.loadOrDefault(Paths.get("parking-tariff.conf")));
+        if (args.length > 1 && args[0].equals("--reprice")) {
+            Tariff.Repricing r = lot.reprice(Tariff.load(Paths.get(args[1])));
+            System.out.printf("%-12s %10s %16s %16s%n", "type", "stays", "charged", "repriced");
+            for (int c = 0; c < Tariff.TYPES; c++) System.out.printf("%-12s %10d %16.2f %16.2f%n", HistoryLog.TYPE_NAMES[c], r.stays[c], r.chargedCents[c] / 100.0, r.repricedCents[c] / 100.0);
+            System.out.printf("%-12s %10d %16.2f %16.2f%n", "Total", Arrays.stream(r.stays).sum(), r.charged() / 100.0, r.repriced() / 100.0);
+            lot.close();
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--server")) {
+            GateServer server = new GateServer(lot, args.length > 1 ? Integer.parseInt(args[1]) : 8080);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> { server.stop(); lot.close(); }));
+            server.start();
+            System.out.println(GREEN + "Gate server listening on port " + server.port() + RESET);
+            return;
+        }
         while (true) {
             clear();
             printBoxHeader("SMART PARKING MANAGEMENT SYSTEM");
@@ -32,7 +65,7 @@ public class ParkingSystem {
                     case "5": handleReports(lot); break;
                     case "6": handleExportCsv(lot); break;
                     case "7": handleActiveList(lot); break;
-                    case "8": System.out.println(GREEN + "Exiting. Goodbye!" + RESET); return;
+                    case "8": lot.close(); System.out.println(GREEN + "Exiting. Goodbye!" + RESET); return;
                     default: System.out.println(RED + "Invalid option." + RESET); pause();
                 }
             } catch (Exception ex) {
@@ -54,7 +87,7 @@ public class ParkingSystem {
         System.out.print("Plate number: ");
         String plate = SC.nextLine().trim().toUpperCase();
         if (plate.isEmpty()) { System.out.println(RED + "Plate cannot be empty." + RESET); pause(); return; }
-        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime now = lot.now();
         if (t.equals("1")) {
             Vehicle v = new Motorcycle(plate);
             Result r = lot.park(v, now);
@@ -75,7 +108,7 @@ public class ParkingSystem {
         System.out.print("Plate number: ");
         String plate = SC.nextLine().trim().toUpperCase();
         if (plate.isEmpty()) { System.out.println(RED + "Plate cannot be empty." + RESET); pause(); return; }
-        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime now = lot.now();
         UnparkResult ur = lot.unparkWithPayment(plate, now);
         if (!ur.success) {
             System.out.println(RED + ur.message + RESET);
@@ -89,75 +122,63 @@ public class ParkingSystem {
     private static void handleVacancy(ParkingLot lot) {
         clear();
         printBoxTitle("VACANCY / OCCUPANCY");
-        Map<String, Integer> m = lot.vacancySummary();
-        System.out.printf("%-28s : %d%n", "Motorcycle vacancies", m.get("M"));
-        System.out.printf("%-28s : %d%n", "4-wheel Section A vacancies", m.get("A"));
-        System.out.printf("%-28s : %d%n", "4-wheel Section B vacancies", m.get("B"));
-        System.out.printf("%-28s : %.2f%%%n", "Overall occupancy rate", lot.occupancyRate());
+        OccupancySnapshot snap = lot.occupancySnapshot();
+        for (LotTopology.SectionDef d : lot.topology().sections())
+            System.out.printf("%-28s : %d%n", d.label + " vacancies", snap.vacant(d.prefix));
+        System.out.printf("%-28s : %.2f%%%n", "Overall occupancy rate", snap.occupancyRate());
         pause();
     }
 
     private static void handleSlotMap(ParkingLot lot) {
         clear();
         printBoxTitle("SLOT MAP");
-        int mUsed = lot.countUsedByPrefix("M");
-        int aUsed = lot.countUsedByPrefix("A");
-        int bUsed = lot.countUsedByPrefix("B");
-        int mTotal = lot.totalMoto();
-        int aTotal = lot.totalA();
-        int bTotal = lot.totalB();
-        String filled = "#";
-        String empty = "-";
-        System.out.println("Motorcycle Slots:");
-        System.out.println("MC: " + filled.repeat(Math.max(0, mUsed)) + empty.repeat(Math.max(0, mTotal - mUsed)) + "  (" + mUsed + "/" + mTotal + ")");
-        System.out.println();
-        System.out.println("Section A:");
-        printSlotBlocks(lot, "A", 10);
-        System.out.println();
-        System.out.println("Section B:");
-        printSlotBlocks(lot, "B", 10);
+        boolean first = true;
+        for (LotTopology.SectionDef d : lot.topology().sections()) {
+            if (!first) System.out.println();
+            first = false;
+            System.out.println(d.label + " slots:");
+            printSlotBlocks(lot, d.prefix, d.rowWidth);
+        }
         pause();
     }
 
     private static void printSlotBlocks(ParkingLot lot, String prefix, int perLine) {
-        List<String> ids = lot.slotIdsByPrefix(prefix);
+        SlotMap map = lot.slotMap(prefix, perLine);
         StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < ids.size(); i++) {
-            String id = ids.get(i);
-            boolean occ = lot.isOccupied(id);
-            sb.append(occ ? "#" : "-");
-            if ((i+1) % perLine == 0) {
-                System.out.println(sb.toString() + "  (" + countPrefixUsedTill(lot, prefix, i) + "/" + ids.size() + ")");
-                sb.setLength(0);
-            }
+        for (int r = 0; r < map.rows(); r++) {
+            sb.setLength(0);
+            map.renderRow(r, sb, '#', '-');
+            sb.append("  (").append(map.usedThroughRow(r)).append('/').append(map.total()).append(')');
+            System.out.println(sb);
         }
-        if (sb.length() > 0) System.out.println(sb.toString() + "  (" + countPrefixUsedTill(lot, prefix, ids.size()-1) + "/" + ids.size() + ")");
-    }
-
-    private static int countPrefixUsedTill(ParkingLot lot, String prefix, int idx) {
-        List<String> ids = lot.slotIdsByPrefix(prefix);
-        int c = 0;
-        for (int i = 0; i <= idx && i < ids.size(); i++) if (lot.isOccupied(ids.get(i))) c++;
-        return c;
     }
 
     private static void handleReports(ParkingLot lot) {
         clear();
         printBoxTitle("REPORTS");
-        String now = LocalDateTime.now().format(PRINTTF);
+        String now = lot.now().format(PRINTTF);
         System.out.println("Report Generated: " + YELLOW + now + RESET);
-        System.out.println("Total slots: " + lot.totalSlots());
-        System.out.println("Currently parked: " + lot.getActiveCount());
-        System.out.printf("Overall occupancy rate: %.2f%%%n", lot.occupancyRate());
+        OccupancySnapshot snap = lot.occupancySnapshot();
+        System.out.println("Total slots: " + snap.totalSlots());
+        System.out.println("Currently parked: " + snap.totalUsed());
+        System.out.printf("Overall occupancy rate: %.2f%%%n", snap.occupancyRate());
         System.out.println("\nRecent history (last 10):");
         List<LogEntry> recent = lot.getRecentHistory(10);
         if (recent.isEmpty()) System.out.println("  No history yet.");
         else for (LogEntry e : recent) System.out.println("  " + e.toString());
         System.out.println("\nPeak hours (top 3):");
-        lot.peakHours().entrySet().stream().sorted((a,b)->Long.compare(b.getValue(), a.getValue())).limit(3)
-            .forEach(en -> System.out.printf("  Hour %02d:00 -> %d entries%n", en.getKey(), en.getValue()));
+        long[] hours = lot.analytics().hours();
+        for (int h : ParkingLot.topHours(hours, 3)) System.out.printf("  Hour %02d:00 -> %d entries%n", h, hours[h]);
+        System.out.println("\nPeak hours, last 7 days (top 3):");
+        LocalDate today = lot.now().toLocalDate();
+        long[] week = lot.analytics().hours(today.minusDays(6), today);
+        for (int h : ParkingLot.topHours(week, 3)) System.out.printf("  Hour %02d:00 -> %d entries%n", h, week[h]);
         System.out.println();
         System.out.println(GREEN + "Total Revenue: ₱" + String.format("%.2f", lot.totalRevenue()) + RESET);
+        if (Metrics.ENABLED) {
+            System.out.println("\nOperation metrics:");
+            System.out.print(lot.metrics().dump());
+        }
         pause();
     }
 
@@ -172,24 +193,37 @@ public class ParkingSystem {
         pause();
     }
 
+    private static final int ACTIVE_PAGE = 20;
+
     private static void handleActiveList(ParkingLot lot) {
-        clear();
-        printBoxTitle("ACTIVE PARKED VEHICLES");
-        List<LogEntry> active = lot.activeList();
-        if (active.isEmpty()) System.out.println("No active parked vehicles.");
-        else {
-            for (LogEntry e : active) System.out.println("  " + e.getPlate() + " | " + e.getVehicleTypeShort() + " | Entered: " + e.getEntryTime().format(PRINTTF));
-        }
-        System.out.println();
-        System.out.println("[S]earch by plate    [ENTER] to go back");
-        String s = SC.nextLine().trim();
-        if (s.equalsIgnoreCase("S")) {
-            System.out.print("Enter plate to search: ");
-            String plate = SC.nextLine().trim().toUpperCase();
-            Optional<LogEntry> found = active.stream().filter(le -> le.getPlate().equals(plate)).findFirst();
-            if (found.isPresent()) System.out.println(GREEN + "Found active: " + found.get().toString() + RESET);
-            else System.out.println(RED + "No active vehicle with plate " + plate + RESET);
-            pause();
+        String after = null;
+        while (true) {
+            clear();
+            printBoxTitle("ACTIVE PARKED VEHICLES");
+            List<LogEntry> page = lot.activePage(after, ACTIVE_PAGE);
+            if (page.isEmpty()) System.out.println(after == null ? "No active parked vehicles." : "No more vehicles.");
+            else for (LogEntry e : page) System.out.println("  " + e.getPlate() + " | " + e.getVehicleTypeShort() + " | Entered: " + e.getEntryTime().format(PRINTTF));
+            System.out.println();
+            System.out.println((page.size() == ACTIVE_PAGE ? "[N]ext page    " : "") + "[S]earch by plate    [ENTER] to go back");
+            String s = SC.nextLine().trim();
+            if (s.equalsIgnoreCase("N") && page.size() == ACTIVE_PAGE) { after = page.get(page.size() - 1).getPlate(); continue; }
+            if (s.equalsIgnoreCase("S")) {
+                System.out.print("Enter plate (or its beginning) to search: ");
+                String plate = SC.nextLine().trim().toUpperCase();
+                LogEntry found = lot.findActive(plate);
+                if (found != null) System.out.println(GREEN + "Found active: " + found.toString() + RESET);
+                else {
+                    System.out.println(RED + "No active vehicle with plate " + plate + RESET);
+                    List<LogEntry> similar = new ArrayList<>(lot.searchActivePrefix(plate, null, ACTIVE_PAGE));
+                    for (LogEntry e : lot.searchActiveFuzzy(plate, ACTIVE_PAGE)) if (!similar.contains(e)) similar.add(e);
+                    if (!similar.isEmpty() && !plate.isEmpty()) {
+                        System.out.println("Did you mean:");
+                        for (LogEntry e : similar) System.out.println("  " + e.toString());
+                    }
+                }
+                pause();
+            }
+            return;
         }
     }
 
@@ -258,68 +292,2191 @@ public class ParkingSystem {
     static abstract class Vehicle {
         private final String plate;
         private final LocalDateTime createdAt;
-        protected Vehicle(String plate) { this.plate = plate; this.createdAt = LocalDateTime.now(); }
+        protected Vehicle(String plate) { this(plate, Clock.systemDefaultZone()); }
+        protected Vehicle(String plate, Clock clock) { this.plate = plate; this.createdAt = LocalDateTime.now(clock); }
         public String getPlate() { return plate; }
         public LocalDateTime getCreatedAt() { return createdAt; }
         public abstract String getTypeName();
         public abstract String preferredSlotPrefix();
+        public abstract int typeCode();
     }
 
     static class Motorcycle extends Vehicle {
         Motorcycle(String plate) { super(plate); }
+        Motorcycle(String plate, Clock clock) { super(plate, clock); }
         @Override public String getTypeName() { return "Motorcycle"; }
         @Override public String preferredSlotPrefix() { return "M"; }
+        @Override public int typeCode() { return 0; }
     }
 
     static class FourWheelA extends Vehicle {
         FourWheelA(String plate) { super(plate); }
+        FourWheelA(String plate, Clock clock) { super(plate, clock); }
         @Override public String getTypeName() { return "FourWheel-A"; }
         @Override public String preferredSlotPrefix() { return "A"; }
+        @Override public int typeCode() { return 1; }
     }
 
     static class FourWheelB extends Vehicle {
         FourWheelB(String plate) { super(plate); }
+        FourWheelB(String plate, Clock clock) { super(plate, clock); }
         @Override public String getTypeName() { return "FourWheel-B"; }
         @Override public String preferredSlotPrefix() { return "B"; }
+        @Override public int typeCode() { return 2; }
+    }
+
+    // Headless gate API over HTTP/JSON (`java ParkingSystem --server [port]`), serving the same
+    // ParkingLot core as the console. Each request runs on its own virtual thread when the JVM has
+    // them (a cached pool otherwise). POST /batch takes newline-separated gate events so a
+    // reconnecting gate or kiosk can pipeline many events in one round trip.
+    //   POST /park   {"plate":"ABC123","type":"FourWheel-A"}
+    //   POST /unpark {"plate":"ABC123"}
+    //   GET  /vacancy
+    //   GET  /active?plate=ABC123  |  ?prefix=ABC&after=ABC100&limit=50  |  ?fuzzy=A8C123
+    //   GET  /receipt?plate=ABC123
+    //   POST /batch  park <type> <plate> | unpark <plate>   (one per line)
+    //   GET  /metrics  (plain-text dump)
+    static class GateServer {
+        private static final int RECEIPT_CAP = 10_000;
+        private final ParkingLot lot;
+        private final com.sun.net.httpserver.HttpServer http;
+        private final ExecutorService executor = requestExecutor();
+        private final Map<String, Receipt> receipts = Collections.synchronizedMap(new LinkedHashMap<String, Receipt>() {
+            @Override protected boolean removeEldestEntry(Map.Entry<String, Receipt> e) { return size() > RECEIPT_CAP; }
+        });
+
+        GateServer(ParkingLot lot, int port) throws IOException {
+            this.lot = lot;
+            http = com.sun.net.httpserver.HttpServer.create(new java.net.InetSocketAddress(port), 1024);
+            http.setExecutor(executor);
+            route("/park", "POST", q -> park(Json.parse(q.body)));
+            route("/unpark", "POST", q -> unpark(Json.parse(q.body)));
+            route("/vacancy", "GET", q -> vacancy());
+            route("/active", "GET", q -> active(q.params));
+            route("/receipt", "GET", q -> receipt(q.params.getOrDefault("plate", "")));
+            route("/batch", "POST", q -> batch(q.body));
+            route("/metrics", "GET", "text/plain; charset=utf-8", q -> Metrics.ENABLED ? lot.metrics().dump() : "metrics disabled\n");
+        }
+        static ExecutorService requestExecutor() {
+            try { return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null); }
+            catch (ReflectiveOperationException ex) { return Executors.newCachedThreadPool(); }
+        }
+        public void start() { http.start(); }
+        public void stop() { http.stop(0); executor.shutdown(); }
+        public int port() { return http.getAddress().getPort(); }
+
+        static class Request { String body; Map<String, String> params; }
+        interface Handler { String handle(Request q) throws Exception; }
+
+        private void route(String path, String method, Handler h) { route(path, method, "application/json; charset=utf-8", h); }
+        // Contexts match by path prefix, so anything longer than the route itself is a 404 here.
+        private void route(String path, String method, String contentType, Handler h) {
+            http.createContext(path, ex -> {
+                int status = 200;
+                String out;
+                try {
+                    if (!ex.getRequestURI().getPath().equals(path)) { status = 404; out = error("No such endpoint: " + ex.getRequestURI().getPath()); }
+                    else if (!ex.getRequestMethod().equals(method)) { status = 405; out = error("Use " + method + " for " + path); }
+                    else {
+                        Request q = new Request();
+                        q.body = new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+                        q.params = query(ex.getRequestURI().getRawQuery());
+                        out = h.handle(q);
+                    }
+                } catch (IllegalArgumentException e) { status = 400; out = error(e.getMessage()); }
+                catch (Exception e) { status = 500; out = error(String.valueOf(e.getMessage())); }
+                byte[] bytes = out.getBytes(StandardCharsets.UTF_8);
+                ex.getResponseHeaders().set("Content-Type", status == 200 ? contentType : "application/json; charset=utf-8");
+                ex.sendResponseHeaders(status, bytes.length);
+                try (OutputStream os = ex.getResponseBody()) { os.write(bytes); }
+            });
+        }
+        private static Map<String, String> query(String raw) {
+            Map<String, String> m = new HashMap<>();
+            if (raw == null) return m;
+            for (String kv : raw.split("&")) {
+                int eq = kv.indexOf('=');
+                if (eq > 0) m.put(java.net.URLDecoder.decode(kv.substring(0, eq), StandardCharsets.UTF_8), java.net.URLDecoder.decode(kv.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+            return m;
+        }
+        private static String plate(String raw) {
+            String plate = raw == null ? "" : raw.trim().toUpperCase();
+            if (plate.isEmpty()) throw new IllegalArgumentException("Plate cannot be empty.");
+            // Plates are copied into CSV exports as they are, so nothing that could split a row gets in.
+            if (!plate.matches("[A-Z0-9-]+")) throw new IllegalArgumentException("Plate may only contain letters, digits and dashes.");
+            return plate;
+        }
+        private static String error(String message) { return new Json().put("success", false).put("message", message).toString(); }
+
+        private Json parkJson(String type, String rawPlate) {
+            String plate = plate(rawPlate);
+            if (type == null || HistoryLog.typeCode(type) < 0) throw new IllegalArgumentException("Unknown vehicle type: " + type);
+            Result r = lot.park(vehicleOf(type, plate, lot.clock()), lot.now());
+            return new Json().put("success", r.success).put("message", r.message);
+        }
+        private Json unparkJson(String rawPlate) {
+            UnparkResult r = lot.unparkWithPayment(plate(rawPlate), lot.now());
+            Json j = new Json().put("success", r.success).put("message", r.message);
+            if (r.success) { receipts.put(r.receipt.plate, r.receipt); j.put("receipt", receiptJson(r.receipt)); }
+            return j;
+        }
+        private String park(Map<String, String> req) { return parkJson(req.get("type"), req.get("plate")).toString(); }
+        private String unpark(Map<String, String> req) { return unparkJson(req.get("plate")).toString(); }
+        private String vacancy() {
+            OccupancySnapshot snap = lot.occupancySnapshot();
+            Json sections = new Json();
+            for (String p : snap.sections()) sections.put(p, new Json().put("total", snap.total(p)).put("used", snap.used(p)).put("vacant", snap.vacant(p)));
+            return new Json().put("sections", sections).put("totalSlots", snap.totalSlots()).put("occupied", snap.totalUsed()).put("occupancyRate", snap.occupancyRate()).toString();
+        }
+        private String active(Map<String, String> params) {
+            if (params.containsKey("plate")) {
+                String plate = plate(params.get("plate"));
+                LogEntry le = lot.findActive(plate);
+                if (le != null) return new Json().put("success", true).put("vehicle", entryJson(le)).toString();
+                return new Json().put("success", false).put("message", "No active vehicle with plate " + plate).toString();
+            }
+            int limit = Math.max(1, Math.min(1000, Integer.parseInt(params.getOrDefault("limit", "50"))));
+            List<LogEntry> found = params.containsKey("fuzzy") ? lot.searchActiveFuzzy(plate(params.get("fuzzy")), limit)
+                    : lot.searchActivePrefix(params.getOrDefault("prefix", "").trim().toUpperCase(), params.get("after"), limit);
+            List<Json> page = new ArrayList<>();
+            for (LogEntry le : found) page.add(entryJson(le));
+            Json j = new Json().put("success", true).put("vehicles", page);
+            if (found.size() == limit && !params.containsKey("fuzzy")) j.put("next", found.get(found.size() - 1).getPlate());
+            return j.toString();
+        }
+        private String receipt(String rawPlate) {
+            Receipt r = receipts.get(plate(rawPlate));
+            if (r == null) return new Json().put("success", false).put("message", "No receipt for plate " + plate(rawPlate)).toString();
+            return new Json().put("success", true).put("receipt", receiptJson(r)).toString();
+        }
+        // Valid lines go to the lot as one applyBatch; malformed ones get their error in place.
+        private String batch(String body) {
+            List<GateEvent> events = new ArrayList<>();
+            List<Json> results = new ArrayList<>();
+            List<Integer> slots = new ArrayList<>();
+            LocalDateTime now = lot.now();
+            for (String line : body.split("\n")) {
+                String[] f = line.trim().split("\\s+");
+                if (f[0].isEmpty()) continue;
+                try {
+                    if (f[0].equalsIgnoreCase("park") && f.length == 3 && HistoryLog.typeCode(f[1]) >= 0) events.add(GateEvent.park(vehicleOf(f[1], plate(f[2]), lot.clock()), now));
+                    else if (f[0].equalsIgnoreCase("unpark") && f.length == 2) events.add(GateEvent.unpark(plate(f[1]), now));
+                    else throw new IllegalArgumentException("Bad event: " + line.trim());
+                    slots.add(results.size());
+                    results.add(null);
+                } catch (IllegalArgumentException ex) { results.add(new Json().put("success", false).put("message", ex.getMessage())); }
+            }
+            BatchResult r = lot.applyBatch(events);
+            for (int i = 0; i < r.size(); i++) {
+                Json j = new Json().put("success", r.success(i)).put("message", r.message(i));
+                Receipt receipt = r.receipt(i);
+                if (receipt != null) { receipts.put(receipt.plate, receipt); j.put("receipt", receiptJson(receipt)); }
+                results.set(slots.get(i), j);
+            }
+            return new Json().put("results", results).toString();
+        }
+        private static Json entryJson(LogEntry le) {
+            return new Json().put("plate", le.getPlate()).put("type", le.getVehicleTypeShort()).put("slot", le.getSlotId()).put("entry", le.getEntryTime().format(TF));
+        }
+        private static Json receiptJson(Receipt r) {
+            return new Json().put("plate", r.plate).put("type", r.vehicleType).put("slot", r.slotId).put("entry", r.entry.format(TF))
+                    .put("exit", r.exit.format(TF)).put("hoursBilled", r.hoursBilled).put("amount", r.amount);
+        }
+    }
+
+    // Minimal JSON support for the gate API: an insertion-ordered object builder and a parser for
+    // flat objects with string, number or boolean values.
+    static class Json {
+        private final StringBuilder sb = new StringBuilder("{");
+        Json put(String key, Object value) {
+            if (sb.length() > 1) sb.append(',');
+            quote(sb, key).append(':');
+            value(sb, value);
+            return this;
+        }
+        private static void value(StringBuilder sb, Object v) {
+            if (v == null) sb.append("null");
+            else if (v instanceof Json || v instanceof Number || v instanceof Boolean) sb.append(v);
+            else if (v instanceof List) {
+                sb.append('[');
+                List<?> l = (List<?>) v;
+                for (int i = 0; i < l.size(); i++) { if (i > 0) sb.append(','); value(sb, l.get(i)); }
+                sb.append(']');
+            } else quote(sb, v.toString());
+        }
+        private static StringBuilder quote(StringBuilder sb, String s) {
+            sb.append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '"' || c == '\\') sb.append('\\').append(c);
+                else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                else sb.append(c);
+            }
+            return sb.append('"');
+        }
+        @Override public String toString() { return sb + "}"; }
+
+        static Map<String, String> parse(String text) {
+            Map<String, String> m = new HashMap<>();
+            String t = text.trim();
+            if (!t.startsWith("{") || !t.endsWith("}")) throw new IllegalArgumentException("Expected a JSON object.");
+            int[] pos = { 1 };
+            skipWs(t, pos);
+            if (t.charAt(pos[0]) == '}') return m;
+            while (true) {
+                skipWs(t, pos);
+                String key = string(t, pos);
+                skipWs(t, pos);
+                expect(t, pos, ':');
+                skipWs(t, pos);
+                String val;
+                if (t.charAt(pos[0]) == '"') val = string(t, pos);
+                else { int start = pos[0]; while (pos[0] < t.length() && ",} \t\r\n".indexOf(t.charAt(pos[0])) < 0) pos[0]++; val = t.substring(start, pos[0]); }
+                m.put(key, val);
+                skipWs(t, pos);
+                if (t.charAt(pos[0]) == ',') { pos[0]++; continue; }
+                expect(t, pos, '}');
+                return m;
+            }
+        }
+        private static void skipWs(String t, int[] pos) { while (pos[0] < t.length() && Character.isWhitespace(t.charAt(pos[0]))) pos[0]++; }
+        private static void expect(String t, int[] pos, char c) {
+            if (pos[0] >= t.length() || t.charAt(pos[0]) != c) throw new IllegalArgumentException("Malformed JSON near position " + pos[0]);
+            pos[0]++;
+        }
+        private static String string(String t, int[] pos) {
+            expect(t, pos, '"');
+            StringBuilder out = new StringBuilder();
+            while (pos[0] < t.length()) {
+                char c = t.charAt(pos[0]++);
+                if (c == '"') return out.toString();
+                if (c == '\\' && pos[0] < t.length()) {
+                    char e = t.charAt(pos[0]++);
+                    switch (e) {
+                        case 'n': out.append('\n'); break;
+                        case 't': out.append('\t'); break;
+                        case 'r': out.append('\r'); break;
+                        case 'b': out.append('\b'); break;
+                        case 'f': out.append('\f'); break;
+                        case 'u':
+                            int code = 0;
+                            for (int i = 0; i < 4; i++) {
+                                int d = pos[0] < t.length() ? Character.digit(t.charAt(pos[0]), 16) : -1;
+                                if (d < 0) throw new IllegalArgumentException("Malformed JSON near position " + pos[0]);
+                                code = code * 16 + d;
+                                pos[0]++;
+                            }
+                            out.append((char) code);
+                            break;
+                        default: out.append(e);
+                    }
+                } else out.append(c);
+            }
+            throw new IllegalArgumentException("Unterminated JSON string.");
+        }
+    }
+
+    // Settable clock for simulations: time only moves when the driver advances it.
+    static class VirtualClock extends Clock {
+        private final AtomicLong millis;
+        private final ZoneId zone;
+        VirtualClock(LocalDateTime start) { this(new AtomicLong(HistoryLog.epochSecond(start) * 1000), ZoneOffset.UTC); }
+        private VirtualClock(AtomicLong millis, ZoneId zone) { this.millis = millis; this.zone = zone; }
+        void advanceSeconds(long seconds) { millis.addAndGet(seconds * 1000); }
+        @Override public ZoneId getZone() { return zone; }
+        // Same instant, other zone: the view shares this clock's time and moves with it.
+        @Override public Clock withZone(ZoneId zone) { return zone.equals(this.zone) ? this : new VirtualClock(millis, zone); }
+        @Override public long millis() { return millis.get(); }
+        @Override public Instant instant() { return Instant.ofEpochMilli(millis.get()); }
+    }
+
+    // Synthetic traffic for capacity planning: `java ParkingSystem --simulate [key=value...]`.
+    // Virtual time advances one tick at a time as fast as the lot keeps up; in each tick every
+    // worker thread first releases its vehicles whose stay has ended, then parks that tick's
+    // arrivals, drawn from a Poisson process whose rate follows a time-of-day curve. Stays are
+    // log-normal and vehicle types are mixed. The lot lives in a throwaway directory and uses
+    // the topology and tariff files of the working directory unless topology=/tariff= say otherwise.
+    static class TrafficSimulator {
+        // Relative arrival rate per hour of day: morning and evening peaks.
+        static final double[] DAY_CURVE = { 0.10, 0.05, 0.05, 0.05, 0.10, 0.25, 0.60, 1.00, 0.95, 0.70, 0.60, 0.65,
+                                            0.75, 0.70, 0.60, 0.60, 0.70, 0.90, 0.85, 0.60, 0.45, 0.35, 0.25, 0.15 };
+
+        static void run(String[] args) throws Exception {
+            Map<String, String> opt = new HashMap<>();
+            for (String a : args) {
+                int eq = a.indexOf('=');
+                if (eq <= 0) throw new IllegalArgumentException("Expected key=value, got " + a);
+                opt.put(a.substring(0, eq), a.substring(eq + 1));
+            }
+            double hours = Double.parseDouble(opt.getOrDefault("hours", "24"));
+            int threads = Integer.parseInt(opt.getOrDefault("threads", "4"));
+            double peakRate = Double.parseDouble(opt.getOrDefault("rate", "150"));
+            boolean flat = opt.getOrDefault("curve", "day").equals("flat");
+            double stayMinutes = Double.parseDouble(opt.getOrDefault("stay", "120"));
+            int tick = Integer.parseInt(opt.getOrDefault("tick", "60"));
+            boolean batch = opt.getOrDefault("mode", "single").equals("batch");
+            long seed = Long.parseLong(opt.getOrDefault("seed", "1"));
+            double[] mix = Arrays.stream(opt.getOrDefault("mix", "50,30,20").split(",")).mapToDouble(Double::parseDouble).toArray();
+            if (mix.length != HistoryLog.TYPE_NAMES.length) throw new IllegalArgumentException("mix needs one weight per vehicle type");
+            LocalDateTime start = LocalDate.parse(opt.getOrDefault("start", LocalDate.now().toString())).atStartOfDay();
+            long ticks = (long) Math.ceil(hours * 3600 / tick);
+
+            VirtualClock vclock = new VirtualClock(start);
+            Path dir = Benchmarks.Fixture.tempDir();
+            ParkingLot lot = new ParkingLot(dir, LotTopology.loadOrDefault(Paths.get(opt.getOrDefault("topology", "parking-topology.conf"))),
+                    Tariff.loadOrDefault(Paths.get(opt.getOrDefault("tariff", "parking-tariff.conf"))), vclock);
+            try {
+                int hourRows = (int) Math.ceil(hours);
+                long[] arrivals = new long[hourRows], rejected = new long[hourRows], departures = new long[hourRows];
+                double[] occSum = new double[hourRows], occPeak = new double[hourRows];
+                long[] samples = new long[hourRows];
+                LongAdder parked = new LongAdder(), noSlot = new LongAdder(), unparked = new LongAdder(), otherFailures = new LongAdder();
+                long[] tickNo = { 0 };
+                CyclicBarrier barrier = new CyclicBarrier(threads, () -> {
+                    int row = (int) Math.min(hourRows - 1, tickNo[0] * tick / 3600);
+                    double occ = lot.occupancySnapshot().occupancyRate();
+                    occSum[row] += occ;
+                    occPeak[row] = Math.max(occPeak[row], occ);
+                    samples[row]++;
+                    tickNo[0]++;
+                    vclock.advanceSeconds(tick);
+                });
+                Worker[] workers = new Worker[threads];
+                for (int t = 0; t < threads; t++) {
+                    workers[t] = new Worker(t, new SplittableRandom(seed * 1_000_003 + t), lot, batch);
+                    workers[t].ratePerTick = peakRate / 60.0 * tick / 60.0 / threads;
+                }
+                Thread[] pool = new Thread[threads];
+                AtomicReference<Exception> failure = new AtomicReference<>();
+                long wall0 = System.nanoTime();
+                for (int t = 0; t < threads; t++) {
+                    Worker w = workers[t];
+                    pool[t] = new Thread(() -> {
+                        try {
+                            for (long k = 0; k < ticks; k++) {
+                                LocalDateTime at = lot.now();
+                                int row = (int) Math.min(hourRows - 1, k * tick / 3600);
+                                double rate = w.ratePerTick * (flat ? 1.0 : DAY_CURVE[at.getHour()]);
+                                w.tick(at, poisson(w.rnd, rate), mix, stayMinutes);
+                                synchronized (arrivals) {
+                                    arrivals[row] += w.tickArrivals; rejected[row] += w.tickRejected; departures[row] += w.tickDepartures;
+                                }
+                                barrier.await();
+                            }
+                        } catch (Exception ex) { if (failure.compareAndSet(null, ex)) barrier.reset(); }
+                    }, "sim-" + t);
+                    pool[t].start();
+                }
+                for (Thread th : pool) th.join();
+                long wall = System.nanoTime() - wall0;
+                if (failure.get() != null) throw failure.get();
+                for (Worker w : workers) { parked.add(w.parked); noSlot.add(w.noSlot); unparked.add(w.unparked); otherFailures.add(w.failed); }
+
+                System.out.printf("Simulated %.1f h from %s on %d threads (%s mode, tick %ds) in %.2f s wall%n",
+                        hours, start.format(TF), threads, batch ? "batch" : "single", tick, wall / 1e9);
+                long ops = parked.sum() + noSlot.sum() + unparked.sum() + otherFailures.sum();
+                System.out.printf("Operations: %d (%.0f ops/s)  parked %d  rejected (no slot) %d  unparked %d  other failures %d%n",
+                        ops, ops / (wall / 1e9), parked.sum(), noSlot.sum(), unparked.sum(), otherFailures.sum());
+                System.out.printf("Revenue: ₱%.2f  still parked at end: %d of %d slots%n", lot.totalRevenue(), lot.getActiveCount(), lot.occupancySnapshot().totalSlots());
+                System.out.printf("%n%-18s %9s %9s %11s %9s %9s%n", "virtual hour", "arrivals", "rejected", "departures", "avg occ%", "peak occ%");
+                for (int r = 0; r < hourRows; r++) {
+                    System.out.printf("%-18s %9d %9d %11d %9.1f %9.1f%n", start.plusHours(r).format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:00")),
+                            arrivals[r], rejected[r], departures[r], samples[r] == 0 ? 0 : occSum[r] / samples[r], occPeak[r]);
+                }
+                if (Metrics.ENABLED) { System.out.println(); System.out.print(lot.metrics().dump()); }
+            } finally {
+                lot.close();
+                Benchmarks.Fixture.delete(dir);
+            }
+        }
+
+        // Knuth's method. exp(-lambda) underflows for large rates, so lambda is split into pieces
+        // of at most 30 whose samples are summed (a sum of Poissons is Poisson).
+        static int poisson(SplittableRandom rnd, double lambda) {
+            int k = 0;
+            for (; lambda > 30; lambda -= 30) k += poisson(rnd, 30.0);
+            if (lambda <= 0) return k;
+            double limit = Math.exp(-lambda), p = rnd.nextDouble();
+            while (p > limit) { k++; p *= rnd.nextDouble(); }
+            return k;
+        }
+
+        // One simulated gate: owns its plates and the departure schedule of the vehicles it parked.
+        static class Worker {
+            final int id;
+            final SplittableRandom rnd;
+            final ParkingLot lot;
+            final boolean batch;
+            final PriorityQueue<long[]> leaving = new PriorityQueue<>(Comparator.comparingLong((long[] d) -> d[0]));
+            double ratePerTick;
+            long next, parked, noSlot, unparked, failed;
+            long tickArrivals, tickRejected, tickDepartures;
+            Worker(int id, SplittableRandom rnd, ParkingLot lot, boolean batch) { this.id = id; this.rnd = rnd; this.lot = lot; this.batch = batch; }
+            private String plate(long n) { return "S" + id + "-" + n; }
+
+            void tick(LocalDateTime at, int count, double[] mix, double stayMinutes) {
+                long nowSecond = HistoryLog.epochSecond(at);
+                tickArrivals = count; tickRejected = 0; tickDepartures = 0;
+                List<GateEvent> events = new ArrayList<>();
+                long[] arrivingIds = new long[count];
+                long[] leavingIds = new long[leaving.size()];
+                int nLeaving = 0;
+                while (!leaving.isEmpty() && leaving.peek()[0] <= nowSecond) leavingIds[nLeaving++] = leaving.poll()[1];
+                for (int i = 0; i < nLeaving; i++) events.add(GateEvent.unpark(plate(leavingIds[i]), at));
+                for (int i = 0; i < count; i++) {
+                    arrivingIds[i] = next++;
+                    events.add(GateEvent.park(vehicleOf(HistoryLog.TYPE_NAMES[pick(mix)], plate(arrivingIds[i]), lot.clock()), at));
+                }
+                boolean[] ok = new boolean[events.size()];
+                if (batch) {
+                    BatchResult r = lot.applyBatch(events);
+                    for (int i = 0; i < ok.length; i++) ok[i] = r.success(i);
+                } else {
+                    for (int i = 0; i < ok.length; i++) {
+                        GateEvent ev = events.get(i);
+                        ok[i] = ev.vehicle != null ? lot.park(ev.vehicle, at).success : lot.unparkWithPayment(ev.plate, at).success;
+                    }
+                }
+                for (int i = 0; i < nLeaving; i++) { if (ok[i]) { unparked++; tickDepartures++; } else failed++; }
+                for (int i = 0; i < count; i++) {
+                    if (!ok[nLeaving + i]) { noSlot++; tickRejected++; continue; }
+                    parked++;
+                    // Log-normal stay with the given median, at least 5 minutes.
+                    double minutes = Math.max(5, stayMinutes * Math.exp(0.8 * gaussian()));
+                    leaving.add(new long[] { nowSecond + (long) (minutes * 60), arrivingIds[i] });
+                }
+            }
+            private int pick(double[] mix) {
+                double total = 0;
+                for (double w : mix) total += w;
+                double x = rnd.nextDouble() * total;
+                for (int i = 0; i < mix.length; i++) if ((x -= mix[i]) < 0) return i;
+                return mix.length - 1;
+            }
+            private double gaussian() {
+                double u = 1 - rnd.nextDouble(), v = rnd.nextDouble();
+                return Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * v);
+            }
+        }
+    }
+
+    // Concurrency check for the striped lot: `java ParkingSystem --stress [threads] [seconds]`.
+    // Gate threads share a small lot and a small plate pool, so every slot and plate is fought
+    // over, and mix single parks, unparks and batches. A reader thread takes activeList snapshots
+    // while they run; none may hold a plate or a slot twice. Invariants are checked afterwards: no
+    // plate and no slot held twice, activeList agreeing with getActiveCount and the plate index, and
+    // revenue equal to the sum of every receipt handed out. Exits with status 1 on a violation.
+    static class StressTest {
+        static final int POOL = 400, BATCH = 32;
+
+        static boolean run(String[] args) throws Exception {
+            int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+            long seconds = args.length > 1 ? Long.parseLong(args[1]) : 5;
+            Path dir = Benchmarks.Fixture.tempDir();
+            ParkingLot lot = new ParkingLot(dir, 60, 30, 30);
+            LongAdder receipts = new LongAdder(), ops = new LongAdder(), reads = new LongAdder();
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            AtomicReference<String> torn = new AtomicReference<>();
+            LocalDateTime base = LocalDateTime.of(2025, 1, 1, 8, 0);
+            long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+            Thread[] gates = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                SplittableRandom rnd = new SplittableRandom(t);
+                gates[t] = new Thread(() -> {
+                    try {
+                        while (System.nanoTime() < deadline) { gateOp(lot, rnd, POOL, base, receipts); ops.increment(); }
+                    } catch (Throwable ex) { failure.compareAndSet(null, ex); }
+                }, "gate-" + t);
+                gates[t].start();
+            }
+            Thread reader = new Thread(() -> {
+                try {
+                    while (System.nanoTime() < deadline) {
+                        Set<String> plates = new HashSet<>(), slots = new HashSet<>();
+                        for (LogEntry le : lot.activeList()) {
+                            if (!plates.add(le.getPlate())) torn.compareAndSet(null, "plate " + le.getPlate() + " listed twice");
+                            if (!slots.add(le.getSlotId())) torn.compareAndSet(null, "slot " + le.getSlotId() + " listed twice");
+                        }
+                        reads.increment();
+                    }
+                } catch (Throwable ex) { failure.compareAndSet(null, ex); }
+            }, "reader");
+            reader.start();
+            for (Thread g : gates) g.join();
+            reader.join();
+
+            List<String> violations = new ArrayList<>();
+            if (failure.get() != null) violations.add("gate thread failed: " + failure.get());
+            if (torn.get() != null) violations.add("activeList snapshot taken while gates ran is torn: " + torn.get());
+            List<LogEntry> active = lot.activeList();
+            Set<String> plates = new HashSet<>(), slots = new HashSet<>();
+            for (LogEntry le : active) {
+                if (!plates.add(le.getPlate())) violations.add("plate parked twice: " + le.getPlate());
+                if (!slots.add(le.getSlotId())) violations.add("slot booked twice: " + le.getSlotId());
+            }
+            if (active.size() != lot.getActiveCount()) violations.add("activeList has " + active.size() + " vehicles, getActiveCount says " + lot.getActiveCount());
+            int indexed = lot.activePage(null, Integer.MAX_VALUE).size();
+            if (indexed != active.size()) violations.add("plate index has " + indexed + " vehicles, activeList " + active.size());
+            if (lot.totalRevenueCents() != receipts.sum()) violations.add("revenue " + lot.totalRevenueCents() + " != sum of receipts " + receipts.sum());
+            lot.close();
+            Benchmarks.Fixture.delete(dir);
+
+            System.out.printf("%d gate threads, %d s: %d operations, %d snapshot reads, %d active at end, revenue ₱%.2f%n", threads, seconds, ops.sum(), reads.sum(), active.size(), receipts.sum() / 100.0);
+            for (String v : violations) System.out.println(RED + "VIOLATION: " + v + RESET);
+            if (violations.isEmpty()) System.out.println(GREEN + "OK: unique plates, unique slots, consistent snapshots and counts, revenue matches receipts" + RESET);
+            return violations.isEmpty();
+        }
+        // One random gate call on a plate from a pool of the given size: a park, an unpark or a
+        // mixed batch. Amounts on the receipts handed out are added to receipts.
+        static void gateOp(ParkingLot lot, SplittableRandom rnd, int pool, LocalDateTime base, LongAdder receipts) {
+            int kind = rnd.nextInt(10);
+            if (kind < 4) {
+                lot.park(randomVehicle(rnd, pool), base);
+            } else if (kind < 8) {
+                UnparkResult r = lot.unparkWithPayment("ST" + rnd.nextInt(pool), base.plusMinutes(rnd.nextInt(600)));
+                if (r.success) receipts.add(r.receipt.amountCents);
+            } else {
+                List<GateEvent> events = new ArrayList<>(BATCH);
+                for (int i = 0; i < BATCH; i++) {
+                    events.add(rnd.nextBoolean() ? GateEvent.park(randomVehicle(rnd, pool), base)
+                            : GateEvent.unpark("ST" + rnd.nextInt(pool), base.plusMinutes(rnd.nextInt(600))));
+                }
+                BatchResult r = lot.applyBatch(events);
+                for (int i = 0; i < r.size(); i++) { Receipt rc = r.receipt(i); if (rc != null) receipts.add(rc.amountCents); }
+            }
+        }
+        private static Vehicle randomVehicle(SplittableRandom rnd, int pool) {
+            return vehicleOf(HistoryLog.TYPE_NAMES[rnd.nextInt(HistoryLog.TYPE_NAMES.length)], "ST" + rnd.nextInt(pool));
+        }
+    }
+
+    // Crash check for the journal and history log: `java ParkingSystem --crash [cycles] [threads]`.
+    // Each cycle runs gate threads in a child JVM against one data directory and halts it mid-load
+    // without closing anything, then reopens the lot here. The history must agree with what
+    // recovery restored: one active CSV row per active vehicle, for the same plates, a paid column
+    // that sums to revenue, and a recent tail ending with the newest row. Exits with status 1 on a
+    // violation.
+    static class CrashTest {
+        static final int POOL = 4000, HALTED = 3;
+
+        static boolean run(String[] args) throws Exception {
+            if (args.length > 0 && args[0].equals("child")) { child(Paths.get(args[1]), Integer.parseInt(args[2]), Long.parseLong(args[3])); return false; }
+            int cycles = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+            int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+            Path dir = Benchmarks.Fixture.tempDir();
+            String java = ProcessHandle.current().info().command().orElse("java");
+            SplittableRandom rnd = new SplittableRandom(7);
+            List<String> violations = new ArrayList<>();
+            for (int c = 1; c <= cycles && violations.isEmpty(); c++) {
+                Process child = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), ParkingSystem.class.getName(),
+                        "--crash", "child", dir.toString(), String.valueOf(threads), String.valueOf(200 + rnd.nextInt(800))).inheritIO().start();
+                if (child.waitFor() != HALTED) { violations.add("cycle " + c + ": load process exited with status " + child.exitValue()); break; }
+                ParkingLot lot = new ParkingLot(dir, topology());
+                try { check(c, lot, violations); } finally { lot.close(); }
+            }
+            Benchmarks.Fixture.delete(dir);
+            for (String v : violations) System.out.println(RED + "VIOLATION: " + v + RESET);
+            if (violations.isEmpty()) System.out.println(GREEN + "OK: history agrees with the recovered lot after every crash" + RESET);
+            return violations.isEmpty();
+        }
+        private static LotTopology topology() { return LotTopology.standard(600, 300, 300); }
+        // The load side: gate threads until the timer runs out, then a halt with no shutdown work.
+        private static void child(Path dir, int threads, long millis) throws Exception {
+            ParkingLot lot = new ParkingLot(dir, topology());
+            LocalDateTime base = LocalDateTime.of(2025, 1, 1, 8, 0);
+            LongAdder receipts = new LongAdder();
+            for (int t = 0; t < threads; t++) {
+                SplittableRandom rnd = new SplittableRandom(System.nanoTime() + t);
+                Thread g = new Thread(() -> { while (true) StressTest.gateOp(lot, rnd, POOL, base, receipts); }, "gate-" + t);
+                g.setDaemon(true);
+                g.start();
+            }
+            Thread.sleep(millis);
+            Runtime.getRuntime().halt(HALTED);
+        }
+        private static void check(int cycle, ParkingLot lot, List<String> violations) throws IOException {
+            Path csv = Files.createTempFile("crash-check", ".csv");
+            try {
+                lot.exportHistoryToCSV(csv.toString());
+                List<String> lines = Files.readAllLines(csv);
+                Set<String> activeRows = new HashSet<>();
+                long paid = 0;
+                for (String line : lines.subList(1, lines.size())) {
+                    String[] col = line.split(",", -1);
+                    if (col[4].isEmpty() && !activeRows.add(col[0])) violations.add("cycle " + cycle + ": two active history rows for " + col[0]);
+                    paid += Long.parseLong(col[6].replace(".", ""));
+                }
+                Set<String> active = new HashSet<>();
+                for (LogEntry le : lot.activeList()) active.add(le.getPlate());
+                if (!activeRows.equals(active)) violations.add("cycle " + cycle + ": history has " + activeRows.size() + " active rows, the recovered lot " + active.size() + " active vehicles");
+                if (active.size() != lot.getActiveCount()) violations.add("cycle " + cycle + ": activeList has " + active.size() + " vehicles, getActiveCount says " + lot.getActiveCount());
+                if (paid != lot.totalRevenueCents()) violations.add("cycle " + cycle + ": history paid column sums to " + paid + ", revenue is " + lot.totalRevenueCents());
+                List<LogEntry> recent = lot.getRecentHistory(1);
+                String newest = lines.size() > 1 ? lines.get(lines.size() - 1).split(",", 2)[0] : null;
+                if (newest != null && (recent.isEmpty() || !recent.get(0).getPlate().equals(newest))) violations.add("cycle " + cycle + ": recent history does not end with the newest history row " + newest);
+                System.out.printf("cycle %d: %d history rows, %d active, revenue ₱%.2f%n", cycle, lines.size() - 1, active.size(), lot.totalRevenueCents() / 100.0);
+            } finally { Files.deleteIfExists(csv); }
+        }
+    }
+
+    // Self-contained micro-benchmark suite for the ParkingLot hot paths: `java ParkingSystem --bench [filter]`.
+    // Each case warms up, then runs timed iterations on N threads and reports throughput, latency
+    // and allocation (bytes/op and MB/s from per-thread allocation counters, like JMH's gc.alloc.rate).
+    static class Benchmarks {
+        static final int WARMUP = 3, ITERATIONS = 5;
+        static final long ITERATION_NANOS = 1_000_000_000L;
+        static final int[] LOT_SIZES = { 120, 12_000 };
+        static final int[] FILL_PERCENT = { 0, 50, 90, 99 };
+        static final int[] HISTORY = { 10_000, 100_000 };
+        static final int[] THREADS = { 1, 4, 16 };
+
+        interface Op { void run(int thread, long i) throws Exception; }
+
+        static void run(String[] args) throws Exception {
+            String filter = args.length > 0 ? args[0] : "";
+            System.out.printf("%-44s %8s %14s %12s %12s %10s%n", "benchmark", "threads", "ops/s", "ns/op", "B/op", "MB/s");
+            for (int size : LOT_SIZES) {
+                for (int fill : FILL_PERCENT) {
+                    String params = " size=" + size + " fill=" + fill + "%";
+                    if (!matches(filter, "parkUnpark" + params, "vacancySummary" + params, "occupancyRate" + params)) continue;
+                    try (Fixture f = new Fixture(size, fill, 0)) {
+                        bench(filter, "parkUnpark" + params, 1, (t, i) -> f.parkUnpark(t, i));
+                        bench(filter, "vacancySummary" + params, 1, (t, i) -> f.lot.vacancySummary());
+                        bench(filter, "occupancyRate" + params, 1, (t, i) -> f.lot.occupancyRate());
+                    }
+                }
+                if (matches(filter, "applyBatch(1024 events) size=" + size)) {
+                    try (Fixture f = new Fixture(size, 50, 0)) {
+                        bench(filter, "applyBatch(1024 events) size=" + size, 1, (t, i) -> f.lot.applyBatch(f.replay));
+                    }
+                }
+                if (!matches(filter, "parkUnpark contended size=" + size)) continue;
+                try (Fixture f = new Fixture(size, 50, 0)) {
+                    for (int threads : THREADS) bench(filter, "parkUnpark contended size=" + size, threads, (t, i) -> f.parkUnpark(t, i));
+                }
+            }
+            if (matches(filter, "findActive active=100000", "searchActivePrefix active=100000", "searchActiveFuzzy active=100000")) {
+                try (Fixture f = new Fixture(200_000, 50, 0)) {
+                    bench(filter, "findActive active=100000", 1, (t, i) -> f.lot.findActive("F" + (i % 100_000)));
+                    bench(filter, "searchActivePrefix active=100000", 1, (t, i) -> f.lot.searchActivePrefix("F" + (i % 1000), null, 20));
+                    bench(filter, "searchActiveFuzzy active=100000", 1, (t, i) -> f.lot.searchActiveFuzzy("F" + (i % 100_000) + "X", 20));
+                }
+            }
+            for (int shards : new int[] { 1, 4 }) {
+                if (!matches(filter, "cluster parkUnpark shards=" + shards)) continue;
+                Path dir = Fixture.tempDir();
+                List<LotTopology> topologies = new ArrayList<>();
+                for (int i = 0; i < shards; i++) topologies.add(LotTopology.standard(3000 / shards, 1500 / shards, 1500 / shards));
+                try (LotCluster cluster = new LotCluster(dir, topologies, 4, 16)) {
+                    LocalDateTime t0 = LocalDateTime.of(2025, 1, 1, 0, 0);
+                    for (int threads : THREADS) bench(filter, "cluster parkUnpark shards=" + shards, threads, (t, i) -> {
+                        String plate = "T" + t + "-" + (i & 1023);
+                        cluster.park(new Motorcycle(plate), t0);
+                        cluster.unparkWithPayment(plate, t0.plusHours(4));
+                    });
+                } finally { Fixture.delete(dir); }
+            }
+            for (int h : HISTORY) {
+                if (!matches(filter, "peakHours history=" + h, "getRecentHistory(10) history=" + h, "exportHistoryToCSV history=" + h)) continue;
+                try (Fixture f = new Fixture(120, 50, h)) {
+                    bench(filter, "peakHours history=" + h, 1, (t, i) -> f.lot.peakHours());
+                    bench(filter, "getRecentHistory(10) history=" + h, 1, (t, i) -> f.lot.getRecentHistory(10));
+                    Path out = f.dir.resolve("export.csv");
+                    bench(filter, "exportHistoryToCSV history=" + h, 1, (t, i) -> f.lot.exportHistoryToCSV(out.toString()));
+                }
+            }
+        }
+
+        static boolean matches(String filter, String... names) {
+            for (String n : names) if (n.contains(filter)) return true;
+            return false;
+        }
+
+        static void bench(String filter, String name, int threads, Op op) throws Exception {
+            if (!name.contains(filter)) return;
+            for (int w = 0; w < WARMUP; w++) iteration(threads, op);
+            double[] opsPerSec = new double[ITERATIONS];
+            long ops = 0, bytes = 0, nanos = 0;
+            for (int it = 0; it < ITERATIONS; it++) {
+                long[] r = iteration(threads, op);
+                opsPerSec[it] = r[0] * 1e9 / r[2];
+                ops += r[0]; bytes += r[1]; nanos += r[2];
+            }
+            double mean = Arrays.stream(opsPerSec).average().orElse(0);
+            double sd = Math.sqrt(Arrays.stream(opsPerSec).map(v -> (v - mean) * (v - mean)).sum() / ITERATIONS);
+            System.out.printf("%-44s %8d %14s %12.1f %12.1f %10.1f%n", name, threads, String.format("%.0f +-%.0f", mean, sd),
+                    nanos * (double) threads / Math.max(1, ops), bytes / (double) Math.max(1, ops), bytes / 1e6 / (nanos / 1e9));
+        }
+
+        // Returns {ops, allocated bytes, elapsed nanos} for one timed iteration.
+        static long[] iteration(int threads, Op op) throws Exception {
+            com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+            CountDownLatch start = new CountDownLatch(1);
+            long[] ops = new long[threads], alloc = new long[threads];
+            Exception[] failure = new Exception[1];
+            Thread[] workers = new Thread[threads];
+            long[] window = new long[2];
+            for (int t = 0; t < threads; t++) {
+                int id = t;
+                workers[t] = new Thread(() -> {
+                    try {
+                        start.await();
+                        long before = mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+                        long deadline = window[0] + ITERATION_NANOS, n = 0;
+                        while (System.nanoTime() < deadline) op.run(id, n++);
+                        alloc[id] = mx.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+                        ops[id] = n;
+                    } catch (Exception ex) { failure[0] = ex; }
+                });
+                workers[t].start();
+            }
+            window[0] = System.nanoTime();
+            start.countDown();
+            for (Thread w : workers) w.join();
+            window[1] = System.nanoTime();
+            if (failure[0] != null) throw failure[0];
+            return new long[] { Arrays.stream(ops).sum(), Arrays.stream(alloc).sum(), window[1] - window[0] };
+        }
+
+        // A lot in a throwaway data directory (tmpfs when available, so journal fsyncs don't
+        // dominate), pre-filled to a fill level and with a given number of completed history rows.
+        static class Fixture implements AutoCloseable {
+            final Path dir;
+            final ParkingLot lot;
+            final LocalDateTime t0 = LocalDateTime.of(2025, 1, 1, 0, 0);
+            // A camera-log style replay: 512 arrivals, each followed later by its departure.
+            final List<GateEvent> replay = new ArrayList<>();
+            static Path tempDir() throws IOException {
+                Path shm = Paths.get("/dev/shm");
+                return Files.isDirectory(shm) ? Files.createTempDirectory(shm, "parking-bench") : Files.createTempDirectory("parking-bench");
+            }
+            static void delete(Path dir) throws IOException {
+                try (java.util.stream.Stream<Path> walk = Files.walk(dir)) {
+                    walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+                }
+            }
+            Fixture(int size, int fillPercent, int history) throws IOException {
+                dir = tempDir();
+                lot = new ParkingLot(dir, size / 2, size / 4, size / 4);
+                for (int i = 0; i < history; i++) {
+                    lot.park(new Motorcycle("H" + i), t0.plusMinutes(i));
+                    lot.unparkWithPayment("H" + i, t0.plusMinutes(i + 90));
+                }
+                int fill = size * fillPercent / 100;
+                for (int i = 0; i < fill; i++) lot.park(i % 2 == 0 ? new Motorcycle("F" + i) : new FourWheelA("F" + i), t0);
+                for (int i = 0; i < 1024; i++) {
+                    String plate = "R" + (i % 32);
+                    replay.add(i % 64 < 32 ? GateEvent.park(i % 2 == 0 ? new Motorcycle(plate) : new FourWheelB(plate), t0.plusMinutes(i)) : GateEvent.unpark(plate, t0.plusMinutes(i + 90)));
+                }
+            }
+            void parkUnpark(int thread, long i) {
+                String plate = "T" + thread + "-" + (i & 1023);
+                lot.park(i % 2 == 0 ? new Motorcycle(plate) : new FourWheelB(plate), t0);
+                lot.unparkWithPayment(plate, t0.plusHours(4));
+            }
+            @Override public void close() throws IOException {
+                lot.close();
+                delete(dir);
+            }
+        }
+    }
+
+    static Vehicle vehicleOf(String typeName, String plate) { return vehicleOf(typeName, plate, Clock.systemDefaultZone()); }
+    static Vehicle vehicleOf(String typeName, String plate, Clock clock) {
+        switch (typeName) {
+            case "Motorcycle": return new Motorcycle(plate, clock);
+            case "FourWheel-B": return new FourWheelB(plate, clock);
+            default: return new FourWheelA(plate, clock);
+        }
+    }
+
+    // Lot layout: sections and, per vehicle type, the sections it may use in overflow order.
+    // Loaded from a plain-text file, one directive per line ('#' starts a comment):
+    //   section <prefix> <capacity> <slot-map-row-width> <label...>
+    //   vehicle <type-name> <prefix> [<prefix>...]
+    static class LotTopology {
+        static final int SECTION_BITS = 11, OFFSET_BITS = 20;
+        static final int MAX_SECTIONS = 1 << SECTION_BITS, MAX_CAPACITY = 1 << OFFSET_BITS;
+        static class SectionDef {
+            final String prefix;
+            final int capacity;
+            final int rowWidth;
+            final String label;
+            SectionDef(String prefix, int capacity, int rowWidth, String label) { this.prefix = prefix; this.capacity = capacity; this.rowWidth = rowWidth; this.label = label; }
+        }
+        private final List<SectionDef> sections = new ArrayList<>();
+        private final int[][] byType = new int[HistoryLog.TYPE_NAMES.length][];
+
+        static LotTopology standard(int motoSlots, int aSlots, int bSlots) {
+            LotTopology t = new LotTopology();
+            t.addSection("M", motoSlots, 60, "Motorcycle");
+            t.addSection("A", aSlots, 10, "4-wheel Section A");
+            t.addSection("B", bSlots, 10, "4-wheel Section B");
+            t.setVehicle("Motorcycle", "M");
+            t.setVehicle("FourWheel-A", "A", "B");
+            t.setVehicle("FourWheel-B", "B", "A");
+            return t;
+        }
+        static LotTopology loadOrDefault(Path file) throws IOException {
+            return Files.exists(file) ? load(file) : standard(60, 30, 30);
+        }
+        static LotTopology load(Path file) throws IOException {
+            LotTopology t = new LotTopology();
+            int n = 0;
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                n++;
+                int hash = line.indexOf('#');
+                String[] f = (hash < 0 ? line : line.substring(0, hash)).trim().split("\\s+");
+                if (f[0].isEmpty()) continue;
+                try {
+                    if (f[0].equals("section") && f.length >= 4) {
+                        String label = f.length > 4 ? String.join(" ", Arrays.copyOfRange(f, 4, f.length)) : f[1];
+                        t.addSection(f[1], Integer.parseInt(f[2]), Integer.parseInt(f[3]), label);
+                    } else if (f[0].equals("vehicle") && f.length >= 3) {
+                        t.setVehicle(f[1], Arrays.copyOfRange(f, 2, f.length));
+                    } else throw new IllegalArgumentException("unknown directive");
+                } catch (IllegalArgumentException ex) {
+                    throw new IOException(file + ":" + n + ": " + ex.getMessage());
+                }
+            }
+            for (int c = 0; c < t.byType.length; c++) if (t.byType[c] == null) t.byType[c] = new int[0];
+            return t;
+        }
+        private void addSection(String prefix, int capacity, int rowWidth, String label) {
+            if (!prefix.matches("[A-Za-z]([A-Za-z0-9]*[A-Za-z])?")) throw new IllegalArgumentException("section prefix must start and end with a letter: " + prefix);
+            if (indexOf(prefix) >= 0) throw new IllegalArgumentException("duplicate section " + prefix);
+            if (sections.size() >= MAX_SECTIONS) throw new IllegalArgumentException("too many sections");
+            if (capacity < 0 || capacity > MAX_CAPACITY) throw new IllegalArgumentException("capacity out of range: " + capacity);
+            if (prefix.length() + digitsFor(capacity) > HistoryLog.SLOT_MAX) throw new IllegalArgumentException("slot ids of " + prefix + " exceed " + HistoryLog.SLOT_MAX + " characters");
+            sections.add(new SectionDef(prefix, capacity, Math.max(1, rowWidth), label));
+        }
+        private void setVehicle(String typeName, String... prefixes) {
+            int code = HistoryLog.typeCode(typeName);
+            if (code < 0) throw new IllegalArgumentException("unknown vehicle type " + typeName);
+            int[] ids = new int[prefixes.length];
+            for (int i = 0; i < prefixes.length; i++) {
+                ids[i] = indexOf(prefixes[i]);
+                if (ids[i] < 0) throw new IllegalArgumentException("unknown section " + prefixes[i]);
+            }
+            byType[code] = ids;
+        }
+        static int digitsFor(int capacity) { return Math.max(2, Integer.toString(Math.max(1, capacity)).length()); }
+        public List<SectionDef> sections() { return Collections.unmodifiableList(sections); }
+        public int indexOf(String prefix) { for (int i = 0; i < sections.size(); i++) if (sections.get(i).prefix.equals(prefix)) return i; return -1; }
+        public int[] sectionsFor(int typeCode) { return typeCode >= 0 && typeCode < byType.length ? byType[typeCode] : new int[0]; }
+        public int totalSlots() { int t = 0; for (SectionDef d : sections) t += d.capacity; return t; }
+        static int slot(int section, int offset) { return (section << OFFSET_BITS) | offset; }
+        static int sectionOf(int slot) { return slot >>> OFFSET_BITS; }
+        static int offsetOf(int slot) { return slot & (MAX_CAPACITY - 1); }
+    }
+
+    // Rates per vehicle type, all in centavos. A stay is billed in whole hours from entry: the
+    // first base hours cost a flat base, each later hour costs the rate for the hour of day it
+    // starts in (so night hours can differ), and each 24 hours from entry is capped at the daily
+    // cap. Fees are lookups into per-type tables precomputed for every entry hour of day.
+    // Loaded from a plain-text file like the topology ('#' starts a comment, amounts in pesos):
+    //   rate <type-name> <base-hours> <base> <per-hour> [<daily-cap>]
+    //   hours <type-name> <from-hour> <to-hour> <per-hour>    (after its rate line; may wrap midnight)
+    static class Tariff {
+        static final int TYPES = HistoryLog.TYPE_NAMES.length;
+        private final int[] baseHours = new int[TYPES];
+        private final long[] baseCents = new long[TYPES];
+        private final long[] capCents = new long[TYPES];
+        private final long[][] hourlyCents = new long[TYPES][24];
+        // [type][entry hour of day][billed hours 0..24]: the first day includes the base.
+        private final long[][][] firstDay = new long[TYPES][24][25];
+        private final long[][][] laterDay = new long[TYPES][24][25];
+
+        static Tariff standard() {
+            Tariff t = new Tariff();
+            t.setRate(0, 3, 2000, 500, 0);
+            t.setRate(1, 3, 4000, 1000, 0);
+            t.setRate(2, 3, 4000, 1000, 0);
+            return t.build();
+        }
+        static Tariff loadOrDefault(Path file) throws IOException {
+            return Files.exists(file) ? load(file) : standard();
+        }
+        // Types the file does not mention keep their standard rates.
+        static Tariff load(Path file) throws IOException {
+            Tariff t = standard();
+            int n = 0;
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                n++;
+                int hash = line.indexOf('#');
+                String[] f = (hash < 0 ? line : line.substring(0, hash)).trim().split("\\s+");
+                if (f[0].isEmpty()) continue;
+                try {
+                    int type = HistoryLog.typeCode(f.length > 1 ? f[1] : "");
+                    if (type < 0) throw new IllegalArgumentException("unknown vehicle type " + (f.length > 1 ? f[1] : ""));
+                    if (f[0].equals("rate") && (f.length == 5 || f.length == 6)) {
+                        t.setRate(type, Integer.parseInt(f[2]), cents(f[3]), cents(f[4]), f.length == 6 ? cents(f[5]) : 0);
+                    } else if (f[0].equals("hours") && f.length == 5) {
+                        t.setHours(type, Integer.parseInt(f[2]), Integer.parseInt(f[3]), cents(f[4]));
+                    } else throw new IllegalArgumentException("unknown directive");
+                } catch (IllegalArgumentException ex) {
+                    throw new IOException(file + ":" + n + ": " + ex.getMessage());
+                }
+            }
+            return t.build();
+        }
+        static long cents(String pesos) {
+            try {
+                long c = new java.math.BigDecimal(pesos).movePointRight(2).longValueExact();
+                if (c < 0) throw new IllegalArgumentException("negative amount " + pesos);
+                return c;
+            } catch (ArithmeticException ex) { throw new IllegalArgumentException("amount must have at most 2 decimals: " + pesos); }
+        }
+        private void setRate(int type, int hours, long base, long perHour, long cap) {
+            if (hours < 0 || hours > 24) throw new IllegalArgumentException("base hours out of range: " + hours);
+            baseHours[type] = hours;
+            baseCents[type] = base;
+            capCents[type] = cap;
+            Arrays.fill(hourlyCents[type], perHour);
+        }
+        private void setHours(int type, int from, int to, long perHour) {
+            if (from < 0 || from > 23 || to < 0 || to > 24) throw new IllegalArgumentException("hours out of range: " + from + " " + to);
+            int h = from;
+            do { hourlyCents[type][h] = perHour; h = (h + 1) % 24; } while (h != to % 24);
+        }
+        private Tariff build() {
+            for (int c = 0; c < TYPES; c++) {
+                long cap = capCents[c] > 0 ? capCents[c] : Long.MAX_VALUE;
+                for (int h = 0; h < 24; h++) {
+                    long first = baseCents[c], later = 0;
+                    firstDay[c][h][0] = Math.min(cap, first);
+                    for (int k = 0; k < 24; k++) {
+                        long rate = hourlyCents[c][(h + k) % 24];
+                        if (k >= baseHours[c]) first += rate;
+                        later += rate;
+                        firstDay[c][h][k + 1] = Math.min(cap, first);
+                        laterDay[c][h][k + 1] = Math.min(cap, later);
+                    }
+                }
+            }
+            return this;
+        }
+        // Started hours, as the original Math.ceil(minutes / 60.0) but in integers.
+        static int billedHours(long minutes) { return (int) ((Math.max(0, minutes) + 59) / 60); }
+        public long feeCents(int typeCode, long entrySecond, int hours) {
+            int h = (int) Math.floorMod(entrySecond / 3600, 24L);
+            if (hours <= 24) return firstDay[typeCode][h][hours];
+            int days = hours / 24, rest = hours % 24;
+            return firstDay[typeCode][h][24] + (days - 1) * laterDay[typeCode][h][24] + laterDay[typeCode][h][rest];
+        }
+        public long stayCents(int typeCode, long entrySecond, long exitSecond) {
+            return feeCents(typeCode, entrySecond, billedHours(Math.floorDiv(exitSecond - entrySecond, 60)));
+        }
+
+        // Re-prices every completed stay in history under this tariff, in parallel over record
+        // ranges, next to what was actually charged. Nothing is written back.
+        static class Repricing {
+            final long[] stays = new long[TYPES], chargedCents = new long[TYPES], repricedCents = new long[TYPES];
+            Repricing add(Repricing o) {
+                for (int c = 0; c < TYPES; c++) { stays[c] += o.stays[c]; chargedCents[c] += o.chargedCents[c]; repricedCents[c] += o.repricedCents[c]; }
+                return this;
+            }
+            public long charged() { return Arrays.stream(chargedCents).sum(); }
+            public long repriced() { return Arrays.stream(repricedCents).sum(); }
+        }
+        Repricing reprice(HistoryLog log) {
+            long end = log.size();
+            return java.util.stream.LongStream.range(0, (end + CsvExport.CHUNK - 1) / CsvExport.CHUNK).parallel().mapToObj(chunk -> {
+                Repricing r = new Repricing();
+                ByteBuffer raw = CsvExport.RAW.get();
+                HistoryRecord rec = new HistoryRecord(raw);
+                long seq = chunk * CsvExport.CHUNK, stop = Math.min(end, seq + CsvExport.CHUNK);
+                try {
+                    while (seq < stop) {
+                        raw.clear();
+                        raw.limit((int) (stop - seq) * HistoryLog.RECORD_SIZE);
+                        int got = log.read(seq, raw);
+                        if (got == 0) break;
+                        for (int i = 0; i < got; i++, seq++) {
+                            rec.at(i * HistoryLog.RECORD_SIZE, seq);
+                            int c = rec.typeCode();
+                            if (!rec.valid() || rec.isActive() || c < 0 || c >= TYPES) continue;
+                            r.stays[c]++;
+                            r.chargedCents[c] += rec.paidCents();
+                            r.repricedCents[c] += stayCents(c, rec.entrySecond(), rec.exitSecond());
+                        }
+                    }
+                } catch (IOException ex) { throw new UncheckedIOException(ex); }
+                return r;
+            }).reduce(Repricing::add).orElseGet(Repricing::new);
+        }
+    }
+
+    // Lowest-free-first index over a section's slots: one bit per slot (set = free) in a
+    // 64-ary bitmap tree, so claim/release/first all cost O(log64 n).
+    static class FreeSlotIndex {
+        private final long[][] levels;
+        private final int size;
+        private int free;
+        FreeSlotIndex(int size) {
+            this.size = size;
+            List<long[]> ls = new ArrayList<>();
+            int n = size;
+            do { n = (n + 63) >>> 6; ls.add(new long[Math.max(1, n)]); } while (n > 1);
+            levels = ls.toArray(new long[0][]);
+            // Mark every slot free level by level instead of releasing one at a time.
+            int bits = size;
+            for (long[] w : levels) {
+                Arrays.fill(w, 0, bits >>> 6, -1L);
+                if ((bits & 63) != 0) w[bits >>> 6] = (1L << bits) - 1;
+                bits = (bits + 63) >>> 6;
+            }
+            free = size;
+        }
+        public int size() { return size; }
+        public int freeCount() { return free; }
+        // Occupancy bits (set = occupied) for every slot, copied straight from the leaf words.
+        public long[] occupiedBits() {
+            long[] leaf = levels[0];
+            long[] res = new long[(size + 63) >>> 6];
+            for (int w = 0; w < res.length; w++) res[w] = ~leaf[w];
+            if ((size & 63) != 0) res[res.length - 1] &= (1L << size) - 1;
+            return res;
+        }
+        public boolean isFree(int i) { return (levels[0][i >>> 6] & (1L << i)) != 0; }
+        public int first() {
+            int top = levels.length - 1;
+            if (levels[top][0] == 0) return -1;
+            int idx = Long.numberOfTrailingZeros(levels[top][0]);
+            for (int l = top - 1; l >= 0; l--) idx = (idx << 6) | Long.numberOfTrailingZeros(levels[l][idx]);
+            return idx;
+        }
+        public void claim(int i) {
+            if (!isFree(i)) return;
+            free--;
+            for (int l = 0; l < levels.length; l++) {
+                long[] w = levels[l];
+                w[i >>> 6] &= ~(1L << i);
+                if (w[i >>> 6] != 0) break;
+                i >>>= 6;
+            }
+        }
+        public void release(int i) {
+            if (isFree(i)) return;
+            free++;
+            for (int l = 0; l < levels.length; l++) {
+                long[] w = levels[l];
+                boolean wasEmpty = w[i >>> 6] == 0;
+                w[i >>> 6] |= 1L << i;
+                if (!wasEmpty) break;
+                i >>>= 6;
+            }
+        }
+    }
+
+    // One section's slots as offsets 0..capacity-1: a free index plus the active entry per
+    // occupied offset. Slot ids ("A07") are derived from the offset only when displayed.
+    static class Section {
+        final int id;
+        final String prefix;
+        private final byte[] prefixBytes;
+        final int width;
+        final LogEntry[] occupants;
+        final FreeSlotIndex free;
+        final ReentrantLock lock = new ReentrantLock();
+        // The owning lot's clock, for the live duration of its active entries.
+        final Clock clock;
+        Section(int id, LotTopology.SectionDef def, Clock clock) {
+            this.id = id; this.clock = clock; this.prefix = def.prefix; this.prefixBytes = prefix.getBytes(StandardCharsets.US_ASCII); this.width = LotTopology.digitsFor(def.capacity);
+            this.occupants = new LogEntry[def.capacity]; this.free = new FreeSlotIndex(def.capacity);
+        }
+        String slotId(int offset) {
+            String n = Integer.toString(offset + 1);
+            StringBuilder sb = new StringBuilder(prefix.length() + width).append(prefix);
+            for (int i = n.length(); i < width; i++) sb.append('0');
+            return sb.append(n).toString();
+        }
+        // Writes the slot id as a length-prefixed history string without building it.
+        void putSlotId(ByteBuffer b, int offset) {
+            int n = offset + 1, digits = Math.max(width, Integer.toString(n).length());
+            b.put((byte) (prefixBytes.length + digits)).put(prefixBytes);
+            int end = b.position() + digits;
+            for (int i = end - 1; i >= end - digits; i--, n /= 10) b.put(i, (byte) ('0' + n % 10));
+            b.position(end);
+        }
+        // Offset for a slot id of this section, or -1.
+        int offsetOf(String slotId) {
+            if (!slotId.startsWith(prefix) || slotId.length() == prefix.length()) return -1;
+            int n = 0;
+            for (int i = prefix.length(); i < slotId.length(); i++) {
+                char c = slotId.charAt(i);
+                if (c < '0' || c > '9' || n > occupants.length) return -1;
+                n = n * 10 + (c - '0');
+            }
+            return n >= 1 && n <= occupants.length ? n - 1 : -1;
+        }
+        int total() { return occupants.length; }
+        int occupied() { return occupants.length - free.freeCount(); }
+    }
+
+    // Per-section totals and occupied counts captured together, so a display board never
+    // shows a vacancy count and an occupancy rate from two different moments.
+    static class OccupancySnapshot {
+        private final String[] prefixes;
+        private final int[] totals;
+        private final int[] occupied;
+        OccupancySnapshot(String[] prefixes, int[] totals, int[] occupied) { this.prefixes = prefixes; this.totals = totals; this.occupied = occupied; }
+        private int indexOf(String prefix) { for (int i = 0; i < prefixes.length; i++) if (prefixes[i].equals(prefix)) return i; return -1; }
+        public List<String> sections() { return Arrays.asList(prefixes); }
+        public int total(String prefix) { int i = indexOf(prefix); return i < 0 ? 0 : totals[i]; }
+        public int used(String prefix) { int i = indexOf(prefix); return i < 0 ? 0 : occupied[i]; }
+        public int vacant(String prefix) { return total(prefix) - used(prefix); }
+        public int totalSlots() { int t = 0; for (int v : totals) t += v; return t; }
+        public int totalUsed() { int t = 0; for (int v : occupied) t += v; return t; }
+        public double occupancyRate() { int total = totalSlots(); return total == 0 ? 0.0 : (totalUsed() * 100.0 / total); }
+    }
+
+    // One section's occupancy as a bitmap laid out in display rows, with the running
+    // occupied total at the end of each row computed in a single pass.
+    static class SlotMap {
+        private final String prefix;
+        private final int total;
+        private final int perLine;
+        private final long[] bits;
+        private final int[] usedThroughRow;
+        SlotMap(String prefix, int total, int perLine, long[] bits) {
+            this.prefix = prefix; this.total = total; this.perLine = perLine; this.bits = bits;
+            this.usedThroughRow = new int[(total + perLine - 1) / perLine];
+            int used = 0;
+            for (int r = 0; r < usedThroughRow.length; r++) {
+                used += countBits(r * perLine, Math.min(total, (r + 1) * perLine));
+                usedThroughRow[r] = used;
+            }
+        }
+        private int countBits(int from, int to) {
+            int c = 0;
+            while (from < to) {
+                int w = from >>> 6;
+                int end = Math.min(to, (w + 1) << 6);
+                long mask = (end - from == 64) ? -1L : ((1L << (end - from)) - 1) << from;
+                c += Long.bitCount(bits[w] & mask);
+                from = end;
+            }
+            return c;
+        }
+        public String prefix() { return prefix; }
+        public int total() { return total; }
+        public int rows() { return usedThroughRow.length; }
+        public int used() { return usedThroughRow.length == 0 ? 0 : usedThroughRow[usedThroughRow.length - 1]; }
+        public int usedThroughRow(int row) { return usedThroughRow[row]; }
+        public boolean isOccupied(int offset) { return (bits[offset >>> 6] & (1L << offset)) != 0; }
+        public long[] rowBits(int row) {
+            int from = row * perLine, to = Math.min(total, from + perLine);
+            long[] res = new long[(to - from + 63) >>> 6];
+            for (int i = from; i < to; i++) if (isOccupied(i)) res[(i - from) >>> 6] |= 1L << (i - from);
+            return res;
+        }
+        public void renderRow(int row, StringBuilder sb, char filled, char empty) {
+            int from = row * perLine, to = Math.min(total, from + perLine);
+            for (int i = from; i < to; i++) sb.append(isOccupied(i) ? filled : empty);
+        }
+    }
+
+    // Append-only history on disk: fixed-width 64-byte records in rolling segment files, so a
+    // record is addressed by its sequence number alone and its exit/paid fields can be patched
+    // in place when the vehicle leaves.
+    //   0 plate length, 1..23 plate | 24 type code | 25 slot length, 26..33 slot
+    //   40 entry epoch-second | 48 exit epoch-second (ACTIVE if none) | 56 paid centavos
+    static class HistoryLog implements Closeable {
+        static final int RECORD_SIZE = 64;
+        static final int PLATE_MAX = 23;
+        static final int SLOT_MAX = 8;
+        static final long ACTIVE = Long.MIN_VALUE;
+        static final String[] TYPE_NAMES = { "Motorcycle", "FourWheel-A", "FourWheel-B" };
+        private final Path dir;
+        private final int perSegment;
+        private final List<FileChannel> segments = new ArrayList<>();
+        private final ByteBuffer buf = ByteBuffer.allocate(RECORD_SIZE);
+        private volatile long size;
+        private ByteBuffer combined;
+        private long combinedStart;
+        HistoryLog(Path dir, int perSegment) throws IOException {
+            this.dir = dir; this.perSegment = perSegment;
+            Files.createDirectories(dir);
+            for (int i = 0; Files.exists(segmentPath(i)); i++) segments.add(open(i));
+            if (!segments.isEmpty()) size = (long) (segments.size() - 1) * perSegment + segments.get(segments.size() - 1).size() / RECORD_SIZE;
+        }
+        private Path segmentPath(int i) { return dir.resolve(String.format("history-%06d.seg", i)); }
+        private FileChannel open(int i) throws IOException {
+            return FileChannel.open(segmentPath(i), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        private FileChannel segment(int i) throws IOException {
+            while (segments.size() <= i) segments.add(open(segments.size()));
+            return segments.get(i);
+        }
+        static long epochSecond(LocalDateTime t) { return t.toEpochSecond(ZoneOffset.UTC); }
+        static LocalDateTime dateTime(long epochSecond) { return LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC); }
+        static int typeCode(String typeName) { for (int i = 0; i < TYPE_NAMES.length; i++) if (TYPE_NAMES[i].equals(typeName)) return i; return -1; }
+        public long size() { return size; }
+        public synchronized long append(LogEntry le) throws IOException {
+            long seq = size;
+            put(seq, le);
+            return seq;
+        }
+        // Writes a record at an explicit position; used by append and by journal replay to
+        // restore records that never reached disk before a crash.
+        public synchronized void put(long seq, LogEntry le) throws IOException {
+            if (combined != null && seq == combinedStart + combined.position() / RECORD_SIZE) {
+                if (!combined.hasRemaining()) {
+                    ByteBuffer grown = ByteBuffer.allocate(combined.capacity() * 2);
+                    combined = grown.put(combined.flip());
+                }
+                encode(combined, le);
+                size = Math.max(size, seq + 1);
+                return;
+            }
+            buf.clear();
+            encode(buf, le);
+            buf.flip();
+            write(seq, 0, buf);
+            size = Math.max(size, seq + 1);
+        }
+        private static void encode(ByteBuffer b, LogEntry le) {
+            int off = b.position();
+            putString(b, le.getPlate(), PLATE_MAX);
+            b.position(off + 24);
+            b.put((byte) le.typeCode());
+            le.putSlotId(b);
+            b.position(off + 40);
+            b.putLong(le.entrySecond()).putLong(le.exitSecond()).putLong(le.getPaidCents());
+        }
+        // Write combining for batches: records appended between beginCombining and endCombining
+        // stay in memory (exit updates to them patch the buffer) and reach the segments as one
+        // write per segment. Readers only see records up to where combining began until it ends.
+        public synchronized void beginCombining() {
+            combined = ByteBuffer.allocate(RECORD_SIZE * 1024);
+            combinedStart = size;
+        }
+        public synchronized void endCombining() throws IOException {
+            ByteBuffer b = combined.flip();
+            combined = null;
+            for (long seq = combinedStart; b.hasRemaining(); ) {
+                int n = (int) Math.min(b.remaining() / RECORD_SIZE, perSegment - seq % perSegment);
+                ByteBuffer part = b.slice().limit(n * RECORD_SIZE);
+                write(seq, 0, part);
+                b.position(b.position() + n * RECORD_SIZE);
+                seq += n;
+            }
+        }
+        // Marks a record invalid (plate length 0) so readers skip it; recovery uses this for parks
+        // whose history record was written but whose journal record never reached disk.
+        public synchronized void discard(long seq) throws IOException {
+            if (combined != null && seq >= combinedStart) {
+                combined.put((int) (seq - combinedStart) * RECORD_SIZE, (byte) 0);
+                return;
+            }
+            buf.clear();
+            buf.put((byte) 0).flip();
+            write(seq, 0, buf);
+        }
+        // Drops every record from seq on, deleting the segments past it; recovery uses this to cut
+        // off the tail of records the journal never saw.
+        public synchronized void truncate(long seq) throws IOException {
+            while (segments.size() > (seq + perSegment - 1) / perSegment) {
+                segments.remove(segments.size() - 1).close();
+                Files.delete(segmentPath(segments.size()));
+            }
+            if (seq % perSegment != 0) segments.get((int) (seq / perSegment)).truncate(seq % perSegment * RECORD_SIZE);
+            size = seq;
+        }
+        public synchronized void update(long seq, long exitSecond, long paidCents) throws IOException {
+            if (combined != null && seq >= combinedStart) {
+                int off = (int) (seq - combinedStart) * RECORD_SIZE;
+                combined.putLong(off + 48, exitSecond).putLong(off + 56, paidCents);
+                return;
+            }
+            buf.clear();
+            buf.putLong(exitSecond);
+            buf.putLong(paidCents);
+            buf.flip();
+            write(seq, 48, buf);
+        }
+        private void write(long seq, int field, ByteBuffer b) throws IOException {
+            FileChannel ch = segment((int) (seq / perSegment));
+            long pos = (seq % perSegment) * RECORD_SIZE + field;
+            while (b.hasRemaining()) pos += ch.write(b, pos);
+        }
+        static void putString(ByteBuffer b, String s, int max) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > max) throw new IllegalArgumentException("Value too long for history record: " + s);
+            b.put((byte) bytes.length).put(bytes);
+        }
+        // Reads whole records starting at seq into dst (never past the current size or the end of
+        // seq's segment) with positional reads, so any number of readers can run alongside appends.
+        // Returns the number of records read.
+        public int read(long seq, ByteBuffer dst) throws IOException {
+            FileChannel ch;
+            long readable;
+            synchronized (this) {
+                int si = (int) (seq / perSegment);
+                readable = combined == null ? size : combinedStart;
+                if (seq >= readable || si >= segments.size()) return 0;
+                ch = segments.get(si);
+            }
+            long inSeg = seq % perSegment;
+            long records = Math.min(Math.min(dst.remaining() / RECORD_SIZE, readable - seq), perSegment - inSeg);
+            int start = dst.position();
+            dst.limit(start + (int) records * RECORD_SIZE);
+            long pos = inSeg * RECORD_SIZE;
+            while (dst.hasRemaining()) { int n = ch.read(dst, pos + dst.position() - start); if (n < 0) break; }
+            int got = (dst.position() - start) / RECORD_SIZE;
+            dst.position(start + got * RECORD_SIZE);
+            return got;
+        }
+        // Streams every record up to the current size through one reusable cursor, reading in
+        // large sequential chunks; nothing is materialized beyond the chunk buffer.
+        public void forEach(java.util.function.Consumer<HistoryRecord> visitor) throws IOException { forEach(0, visitor); }
+        public void forEach(long from, java.util.function.Consumer<HistoryRecord> visitor) throws IOException {
+            long end = size;
+            ByteBuffer chunk = ByteBuffer.allocate(RECORD_SIZE * 1024);
+            HistoryRecord rec = new HistoryRecord(chunk);
+            for (long seq = from; seq < end; ) {
+                chunk.clear();
+                int got = read(seq, chunk);
+                if (got == 0) { seq = (seq / perSegment + 1) * perSegment; continue; }
+                for (int r = 0; r < got; r++, seq++) {
+                    rec.at(r * RECORD_SIZE, seq);
+                    if (rec.valid()) visitor.accept(rec);
+                }
+            }
+        }
+        public synchronized void force() throws IOException { for (FileChannel ch : segments) ch.force(false); }
+        @Override public synchronized void close() throws IOException { for (FileChannel ch : segments) ch.close(); segments.clear(); }
     }
 
-    static class ParkingSlot {
-        private final String id;
-        private Vehicle occupant;
-        ParkingSlot(String id) { this.id = id; }
-        public String getId() { return id; }
-        public boolean isOccupied() { return occupant != null; }
-        public void occupy(Vehicle v) { this.occupant = v; }
-        public void vacate() { this.occupant = null; }
-        public Vehicle getOccupant() { return occupant; }
+    // Write-ahead journal of park/unpark events, one 64-byte record each, in numbered generation
+    // files. Events are encoded into an in-memory batch under the caller's section stripe; sync()
+    // lets the first waiting thread write and fsync the whole batch for everyone queued behind it.
+    //   0 plate length, 1..23 plate | 24 type code | 25 slot length, 26..33 slot | 34 kind
+    //   36 CRC32 | 40 history seq | 48 event epoch-second | 56 paid centavos
+    static class Journal implements Closeable {
+        static final byte PARK = 1, UNPARK = 2;
+        static final int RECORD_SIZE = 64;
+        private final Path dir;
+        private long gen;
+        private FileChannel ch;
+        private ByteBuffer pending = ByteBuffer.allocate(RECORD_SIZE * 1024);
+        private ByteBuffer flushBuf = ByteBuffer.allocate(RECORD_SIZE * 1024);
+        private final ByteBuffer rec = ByteBuffer.allocate(RECORD_SIZE);
+        private final CRC32 crc = new CRC32();
+        private long appended, durable, records;
+        private boolean flushing;
+        // Set when a batch could not be written or forced. Its events may be partly on disk, so
+        // the journal stops there: every later append, sync, roll and close fails with this cause.
+        private IOException failed;
+        Journal(Path dir, long gen) throws IOException {
+            this.dir = dir; this.gen = gen;
+            Files.createDirectories(dir);
+            ch = open(gen);
+        }
+        static Path path(Path dir, long gen) { return dir.resolve(String.format("journal-%08d.log", gen)); }
+        private FileChannel open(long g) throws IOException {
+            FileChannel c = FileChannel.open(path(dir, g), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            c.position(c.size());
+            return c;
+        }
+        public synchronized long generation() { return gen; }
+        public synchronized long records() { return records; }
+        public synchronized long append(byte kind, LogEntry le, long second, long paidCents) throws IOException {
+            checkUsable();
+            rec.clear();
+            HistoryLog.putString(rec, le.getPlate(), HistoryLog.PLATE_MAX);
+            rec.position(24);
+            rec.put((byte) le.typeCode());
+            le.putSlotId(rec);
+            rec.put(34, kind);
+            rec.position(40);
+            rec.putLong(le.seq).putLong(second).putLong(paidCents);
+            rec.putInt(36, checksum(rec.array()));
+            if (pending.remaining() < RECORD_SIZE) {
+                ByteBuffer grown = ByteBuffer.allocate(pending.capacity() * 2);
+                pending.flip();
+                pending = grown.put(pending);
+            }
+            pending.put(rec.array());
+            records++;
+            return ++appended;
+        }
+        private int checksum(byte[] r) {
+            crc.reset();
+            crc.update(r, 0, 36);
+            crc.update(r, 40, RECORD_SIZE - 40);
+            return (int) crc.getValue();
+        }
+        // Group commit: blocks until the event with the given ticket is on disk.
+        public void sync(long ticket) throws IOException {
+            ByteBuffer batch;
+            FileChannel target;
+            long upTo;
+            synchronized (this) {
+                while (durable < ticket && flushing) {
+                    try { wait(); } catch (InterruptedException ex) { Thread.currentThread().interrupt(); throw new InterruptedIOException(); }
+                }
+                if (durable >= ticket) return;
+                checkUsable();
+                flushing = true;
+                batch = pending; pending = flushBuf; flushBuf = batch;
+                pending.clear();
+                batch.flip();
+                target = ch;
+                upTo = appended;
+            }
+            try {
+                while (batch.hasRemaining()) target.write(batch);
+                target.force(false);
+            } catch (IOException | RuntimeException ex) {
+                synchronized (this) { failed = ex instanceof IOException ? (IOException) ex : new IOException(ex); flushing = false; notifyAll(); }
+                throw ex;
+            }
+            synchronized (this) { flushing = false; if (durable < upTo) durable = upTo; notifyAll(); }
+        }
+        synchronized void checkUsable() throws IOException {
+            if (failed != null) throw new IOException("Journal unavailable after an earlier write failure", failed);
+        }
+        // Starts a new generation file; everything appended so far is forced into the old one.
+        public synchronized long roll() throws IOException {
+            while (flushing) {
+                try { wait(); } catch (InterruptedException ex) { Thread.currentThread().interrupt(); throw new InterruptedIOException(); }
+            }
+            checkUsable();
+            try {
+                pending.flip();
+                while (pending.hasRemaining()) ch.write(pending);
+                pending.clear();
+                ch.force(false);
+                ch.close();
+            } catch (IOException ex) { failed = ex; notifyAll(); throw ex; }
+            durable = appended;
+            notifyAll();
+            ch = open(++gen);
+            records = 0;
+            return gen;
+        }
+        // Replays one generation file, stopping at the first torn or corrupt record.
+        static void replay(Path file, java.util.function.Consumer<ByteBuffer> visitor) throws IOException {
+            CRC32 c = new CRC32();
+            try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer chunk = ByteBuffer.allocate(RECORD_SIZE * 4096);
+                ByteBuffer r = ByteBuffer.allocate(RECORD_SIZE);
+                while (in.read(chunk) > 0 || chunk.position() > 0) {
+                    chunk.flip();
+                    if (chunk.remaining() < RECORD_SIZE) return;
+                    while (chunk.remaining() >= RECORD_SIZE) {
+                        chunk.get(r.array());
+                        c.reset(); c.update(r.array(), 0, 36); c.update(r.array(), 40, RECORD_SIZE - 40);
+                        if ((int) c.getValue() != r.getInt(36)) return;
+                        visitor.accept(r);
+                    }
+                    chunk.compact();
+                }
+            }
+        }
+        @Override public synchronized void close() throws IOException {
+            if (failed != null) { ch.close(); checkUsable(); }
+            pending.flip();
+            while (pending.hasRemaining()) ch.write(pending);
+            pending.clear();
+            ch.force(false);
+            ch.close();
+            durable = appended;
+        }
     }
 
+    // Parallel CSV export: history is cut into fixed record ranges that fork-join workers read and
+    // format straight into pooled byte buffers, while the calling thread writes finished chunks
+    // in order through one channel. With gzip each worker also compresses its chunk as its own
+    // gzip member (concatenated members are a valid .gz), so compression runs in parallel too.
+    // Column layout matches the original exportHistoryToCSV.
+    static class CsvExport {
+        static final int CHUNK = 8192;
+        static final int MAX_ROW = 160;
+        static final byte[] HEADER = "plate,vehicle_type,slot_id,entry_time,exit_time,duration_minutes,amount_paid\n".getBytes(StandardCharsets.US_ASCII);
+        static final byte[][] TYPE_BYTES = new byte[HistoryLog.TYPE_NAMES.length + 1][];
+        static {
+            for (int i = 0; i < HistoryLog.TYPE_NAMES.length; i++) TYPE_BYTES[i] = HistoryLog.TYPE_NAMES[i].getBytes(StandardCharsets.US_ASCII);
+            TYPE_BYTES[HistoryLog.TYPE_NAMES.length] = "Unknown".getBytes(StandardCharsets.US_ASCII);
+        }
+        private static class Chunk { final ByteBuffer buf; int rows; byte[] gz; Chunk(ByteBuffer buf) { this.buf = buf; } }
+        private static final ThreadLocal<ByteBuffer> RAW = ThreadLocal.withInitial(() -> ByteBuffer.allocate(CHUNK * HistoryLog.RECORD_SIZE));
+
+        // Rows whose entry time is in [fromSecond, toSecond) are written; returns the row count.
+        static long run(HistoryLog log, Path file, long fromSecond, long toSecond, boolean gzip, long nowSecond) throws IOException {
+            long end = log.size();
+            int window = Math.max(2, ForkJoinPool.getCommonPoolParallelism() * 2);
+            BlockingQueue<ByteBuffer> pool = new ArrayBlockingQueue<>(window);
+            for (int i = 0; i < window; i++) pool.add(ByteBuffer.allocate(CHUNK * MAX_ROW));
+            ArrayDeque<Future<Chunk>> inFlight = new ArrayDeque<>();
+            long rows = 0;
+            try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeFully(out, ByteBuffer.wrap(gzip ? gzip(HEADER, HEADER.length) : HEADER));
+                long next = 0;
+                while (next < end || !inFlight.isEmpty()) {
+                    while (next < end && inFlight.size() < window) {
+                        long from = next, to = Math.min(end, next + CHUNK);
+                        ByteBuffer dst = pool.take();
+                        inFlight.add(ForkJoinPool.commonPool().submit(() -> {
+                            Chunk c = new Chunk(dst);
+                            c.rows = format(log, from, to, fromSecond, toSecond, nowSecond, dst);
+                            if (gzip) c.gz = gzip(dst.array(), dst.position());
+                            return c;
+                        }));
+                        next = to;
+                    }
+                    Chunk done = inFlight.removeFirst().get();
+                    rows += done.rows;
+                    if (done.gz != null) writeFully(out, ByteBuffer.wrap(done.gz));
+                    else { done.buf.flip(); writeFully(out, done.buf); }
+                    done.buf.clear();
+                    pool.add(done.buf);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException ex) {
+                throw ex.getCause() instanceof IOException ? (IOException) ex.getCause() : new IOException(ex.getCause());
+            } finally {
+                for (Future<Chunk> f : inFlight) f.cancel(false);
+            }
+            return rows;
+        }
+        private static void writeFully(WritableByteChannel out, ByteBuffer b) throws IOException { while (b.hasRemaining()) out.write(b); }
+        private static byte[] gzip(byte[] data, int len) throws IOException {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(len / 3 + 64);
+            try (java.util.zip.GZIPOutputStream gz = new java.util.zip.GZIPOutputStream(bos, 1 << 16) { { def.setLevel(java.util.zip.Deflater.BEST_SPEED); } }) {
+                gz.write(data, 0, len);
+            }
+            return bos.toByteArray();
+        }
+
+        // Formats records [from, to) into dst and returns the number of rows written.
+        private static int format(HistoryLog log, long from, long to, long fromSecond, long toSecond, long nowSecond, ByteBuffer dst) throws IOException {
+            ByteBuffer raw = RAW.get();
+            byte[] o = dst.array();
+            int p = 0, rows = 0;
+            long lastDay = Long.MIN_VALUE, lastExitDay = Long.MIN_VALUE;
+            byte[] dayText = new byte[10], exitDayText = new byte[10];
+            for (long seq = from; seq < to; ) {
+                raw.clear();
+                raw.limit((int) (to - seq) * HistoryLog.RECORD_SIZE);
+                int got = log.read(seq, raw);
+                if (got == 0) break;
+                byte[] r = raw.array();
+                for (int i = 0; i < got; i++) {
+                    int off = i * HistoryLog.RECORD_SIZE;
+                    if (r[off] == 0) continue;
+                    long entry = raw.getLong(off + 40), exit = raw.getLong(off + 48), cents = raw.getLong(off + 56);
+                    if (entry < fromSecond || entry >= toSecond) continue;
+                    int len = r[off];
+                    System.arraycopy(r, off + 1, o, p, len); p += len; o[p++] = ',';
+                    int type = r[off + 24];
+                    byte[] tb = TYPE_BYTES[type >= 0 && type < HistoryLog.TYPE_NAMES.length ? type : HistoryLog.TYPE_NAMES.length];
+                    System.arraycopy(tb, 0, o, p, tb.length); p += tb.length; o[p++] = ',';
+                    len = r[off + 25];
+                    System.arraycopy(r, off + 26, o, p, len); p += len; o[p++] = ',';
+                    long day = Math.floorDiv(entry, 86400L);
+                    if (day != lastDay) { civilDate(day, dayText); lastDay = day; }
+                    p = dateTime(dayText, entry, o, p); o[p++] = ',';
+                    boolean active = exit == HistoryLog.ACTIVE;
+                    if (!active) {
+                        long exitDay = Math.floorDiv(exit, 86400L);
+                        if (exitDay != lastExitDay) { civilDate(exitDay, exitDayText); lastExitDay = exitDay; }
+                        p = dateTime(exitDayText, exit, o, p);
+                    }
+                    o[p++] = ',';
+                    p = digits(((active ? nowSecond : exit) - entry) / 60, o, p);
+                    o[p++] = ',';
+                    if (cents < 0) { o[p++] = '-'; cents = -cents; }
+                    p = digits(cents / 100, o, p); o[p++] = '.';
+                    o[p++] = (byte) ('0' + (cents % 100) / 10); o[p++] = (byte) ('0' + cents % 10);
+                    o[p++] = '\n';
+                    rows++;
+                }
+                seq += got;
+            }
+            dst.position(p);
+            return rows;
+        }
+        private static int dateTime(byte[] day, long second, byte[] o, int p) {
+            System.arraycopy(day, 0, o, p, 10); p += 10;
+            int sod = (int) Math.floorMod(second, 86400L);
+            o[p++] = ' ';
+            p = two(sod / 3600, o, p); o[p++] = ':';
+            p = two(sod / 60 % 60, o, p); o[p++] = ':';
+            return two(sod % 60, o, p);
+        }
+        private static int two(int v, byte[] o, int p) { o[p++] = (byte) ('0' + v / 10); o[p++] = (byte) ('0' + v % 10); return p; }
+        private static int digits(long v, byte[] o, int p) {
+            if (v < 0) { o[p++] = '-'; v = -v; }
+            if (v == 0) { o[p++] = '0'; return p; }
+            int start = p;
+            while (v > 0) { o[p++] = (byte) ('0' + v % 10); v /= 10; }
+            for (int i = start, j = p - 1; i < j; i++, j--) { byte t = o[i]; o[i] = o[j]; o[j] = t; }
+            return p;
+        }
+        // yyyy-MM-dd for an epoch day (proleptic Gregorian, years 0-9999).
+        private static void civilDate(long epochDay, byte[] out) {
+            long z = epochDay + 719468;
+            long era = Math.floorDiv(z, 146097);
+            long doe = z - era * 146097;
+            long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+            long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+            long mp = (5 * doy + 2) / 153;
+            int d = (int) (doy - (153 * mp + 2) / 5 + 1);
+            int m = (int) (mp < 10 ? mp + 3 : mp - 9);
+            int y = (int) (yoe + era * 400 + (m <= 2 ? 1 : 0));
+            out[0] = (byte) ('0' + y / 1000 % 10); out[1] = (byte) ('0' + y / 100 % 10); out[2] = (byte) ('0' + y / 10 % 10); out[3] = (byte) ('0' + y % 10);
+            out[4] = '-'; two(m, out, 5); out[7] = '-'; two(d, out, 8);
+        }
+    }
+
+    // Flyweight view of one history record inside a read chunk; fields decode on demand.
+    static class HistoryRecord {
+        private final ByteBuffer b;
+        private int off;
+        private long seq;
+        HistoryRecord(ByteBuffer b) { this.b = b; }
+        void at(int off, long seq) { this.off = off; this.seq = seq; }
+        boolean valid() { return b.get(off) != 0; }
+        public long seq() { return seq; }
+        private String str(int at) { int len = b.get(off + at); byte[] out = new byte[len]; for (int i = 0; i < len; i++) out[i] = b.get(off + at + 1 + i); return new String(out, StandardCharsets.UTF_8); }
+        public String plate() { return str(0); }
+        public int typeCode() { return b.get(off + 24); }
+        public String vehicleType() { int c = typeCode(); return c >= 0 && c < HistoryLog.TYPE_NAMES.length ? HistoryLog.TYPE_NAMES[c] : "Unknown"; }
+        public String slotId() { return str(25); }
+        public long entrySecond() { return b.getLong(off + 40); }
+        public long exitSecond() { return b.getLong(off + 48); }
+        public boolean isActive() { return exitSecond() == HistoryLog.ACTIVE; }
+        public long paidCents() { return b.getLong(off + 56); }
+    }
+
+    // Usage counters kept up to date on every park/unpark so reports never rescan history.
+    // Entries are bucketed by vehicle type x hour-of-day and x day-of-week; a ring of recent
+    // days keeps per-hour entries and revenue for range queries; exits feed a duration histogram.
+    static class Analytics {
+        static final int TYPES = HistoryLog.TYPE_NAMES.length;
+        static final int DAYS = 400;
+        static final long[] DURATION_BOUNDS = { 30, 60, 120, 180, 360, 720, 1440 };
+        private final long[] hourByType = new long[TYPES * 24];
+        private final long[] dowByType = new long[TYPES * 7];
+        private final long[] durations = new long[DURATION_BOUNDS.length + 1];
+        private final long[] dayKey = new long[DAYS];
+        private final long[] dayHours = new long[DAYS * 24];
+        private final long[] dayRevenue = new long[DAYS];
+        Analytics() { Arrays.fill(dayKey, Long.MIN_VALUE); }
+        // Ring slot for a day, recycling the slot if it still holds a day DAYS ago; -1 if the day
+        // has already rolled out of the window.
+        private int day(long epochDay) {
+            int slot = (int) Math.floorMod(epochDay, (long) DAYS);
+            if (dayKey[slot] > epochDay) return -1;
+            if (dayKey[slot] != epochDay) {
+                dayKey[slot] = epochDay;
+                Arrays.fill(dayHours, slot * 24, slot * 24 + 24, 0);
+                dayRevenue[slot] = 0;
+            }
+            return slot;
+        }
+        public synchronized void recordEntry(int typeCode, long entrySecond) {
+            long epochDay = Math.floorDiv(entrySecond, 86400L);
+            int hour = (int) (Math.floorMod(entrySecond, 86400L) / 3600);
+            if (typeCode >= 0 && typeCode < TYPES) {
+                hourByType[typeCode * 24 + hour]++;
+                dowByType[typeCode * 7 + (int) Math.floorMod(epochDay + 3, 7L)]++;
+            }
+            int slot = day(epochDay);
+            if (slot >= 0) dayHours[slot * 24 + hour]++;
+        }
+        public synchronized void recordExit(long entrySecond, long exitSecond, long paidCents) {
+            long minutes = (exitSecond - entrySecond) / 60;
+            int b = 0;
+            while (b < DURATION_BOUNDS.length && minutes >= DURATION_BOUNDS[b]) b++;
+            durations[b]++;
+            int slot = day(Math.floorDiv(exitSecond, 86400L));
+            if (slot >= 0) dayRevenue[slot] += paidCents;
+        }
+        public synchronized long[] hours() {
+            long[] res = new long[24];
+            for (int t = 0; t < TYPES; t++) for (int h = 0; h < 24; h++) res[h] += hourByType[t * 24 + h];
+            return res;
+        }
+        public synchronized long[] hours(int typeCode) { return Arrays.copyOfRange(hourByType, typeCode * 24, typeCode * 24 + 24); }
+        // Monday first.
+        public synchronized long[] daysOfWeek() {
+            long[] res = new long[7];
+            for (int t = 0; t < TYPES; t++) for (int d = 0; d < 7; d++) res[d] += dowByType[t * 7 + d];
+            return res;
+        }
+        public synchronized long[] hours(LocalDate from, LocalDate to) {
+            long[] res = new long[24];
+            for (long d = Math.max(from.toEpochDay(), to.toEpochDay() - DAYS + 1); d <= to.toEpochDay(); d++) {
+                int slot = (int) Math.floorMod(d, (long) DAYS);
+                if (dayKey[slot] == d) for (int h = 0; h < 24; h++) res[h] += dayHours[slot * 24 + h];
+            }
+            return res;
+        }
+        public synchronized long revenueCents(LocalDate day) {
+            int slot = (int) Math.floorMod(day.toEpochDay(), (long) DAYS);
+            return dayKey[slot] == day.toEpochDay() ? dayRevenue[slot] : 0;
+        }
+        public synchronized long[] durationHistogram() { return durations.clone(); }
+        static int bytes() { return 8 * (TYPES * 24 + TYPES * 7 + DURATION_BOUNDS.length + 1 + DAYS * 27); }
+        public synchronized void writeTo(ByteBuffer b) {
+            for (long[] a : new long[][] { hourByType, dowByType, durations, dayKey, dayHours, dayRevenue }) for (long v : a) b.putLong(v);
+        }
+        public synchronized void readFrom(ByteBuffer b) {
+            for (long[] a : new long[][] { hourByType, dowByType, durations, dayKey, dayHours, dayRevenue }) for (int i = 0; i < a.length; i++) a[i] = b.getLong();
+        }
+    }
+
+    // Latency histogram with log-linear buckets in the HdrHistogram style: exact below 16ns, then
+    // 16 sub-buckets per power of two (about 6% precision) up to Long.MAX_VALUE. Recording is
+    // one lock-free array increment plus two adders.
+    static class LatencyHistogram {
+        private static final int SUB_BITS = 4, SUB = 1 << SUB_BITS;
+        private final AtomicLongArray buckets = new AtomicLongArray((64 - SUB_BITS + 1) * SUB);
+        private final LongAdder count = new LongAdder(), sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+        static int bucket(long v) {
+            if (v < SUB) return (int) Math.max(0, v);
+            int e = 63 - Long.numberOfLeadingZeros(v);
+            return ((e - SUB_BITS + 1) << SUB_BITS) + (int) ((v >>> (e - SUB_BITS)) & (SUB - 1));
+        }
+        // Largest value that falls in the bucket.
+        static long highest(int b) {
+            if (b < SUB) return b;
+            int shift = (b >> SUB_BITS) - 1;
+            return ((long) (SUB + (b & (SUB - 1))) << shift) + (1L << shift) - 1;
+        }
+        void record(long nanos) {
+            buckets.incrementAndGet(bucket(nanos));
+            count.increment();
+            sum.add(nanos);
+            max.accumulate(nanos);
+        }
+        public long count() { return count.sum(); }
+        public long mean() { long c = count.sum(); return c == 0 ? 0 : sum.sum() / c; }
+        public long max() { return max.get(); }
+        public long percentile(double q) {
+            long total = 0;
+            long[] c = new long[buckets.length()];
+            for (int i = 0; i < c.length; i++) total += c[i] = buckets.get(i);
+            long rank = (long) Math.ceil(q / 100.0 * total), seen = 0;
+            for (int i = 0; i < c.length; i++) if ((seen += c[i]) >= rank && c[i] > 0) return Math.min(highest(i), max());
+            return 0;
+        }
+    }
+
+    // Hot-path instrumentation for one lot: latency histograms per operation and per section,
+    // failure counters and stripe wait times, readable as a text dump or over JMX
+    // (parking:type=ParkingLot,dir=<data dir>). Disabled with -Dparking.metrics=false; the flag
+    // is a static final, so every guarded probe compiles away, no histogram is allocated and no
+    // MBean is registered.
+    static class Metrics implements javax.management.DynamicMBean {
+        static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty("parking.metrics"));
+        static final int NO_SLOT = 0, ALREADY_PARKED = 1, NOT_ACTIVE = 2, PLATE_TOO_LONG = 3, IO_ERROR = 4;
+        static final String[] FAILURES = { "noSlot", "alreadyParked", "notActive", "plateTooLong", "ioError" };
+        // Null when disabled: nothing reads them then, and large topologies pay nothing per section.
+        final LatencyHistogram park, unpark, slotSearch, batch, journalSync, export, snapshot;
+        private final String[] sectionNames;
+        private final LatencyHistogram[] sectionPark, sectionUnpark, lockWait;
+        private final LongAdder[] failures = new LongAdder[FAILURES.length];
+        private final LongAdder batchEvents = new LongAdder();
+        private javax.management.ObjectName registered;
+
+        Metrics(String[] sectionNames) {
+            this.sectionNames = ENABLED ? sectionNames : new String[0];
+            park = histogram(); unpark = histogram(); slotSearch = histogram(); batch = histogram();
+            journalSync = histogram(); export = histogram(); snapshot = histogram();
+            int n = this.sectionNames.length;
+            sectionPark = new LatencyHistogram[n];
+            sectionUnpark = new LatencyHistogram[n];
+            lockWait = new LatencyHistogram[n];
+            for (int i = 0; i < n; i++) { sectionPark[i] = new LatencyHistogram(); sectionUnpark[i] = new LatencyHistogram(); lockWait[i] = new LatencyHistogram(); }
+            for (int i = 0; i < failures.length; i++) failures[i] = new LongAdder();
+        }
+        void parked(int section, long nanos) { park.record(nanos); sectionPark[section].record(nanos); }
+        void unparked(int section, long nanos) { unpark.record(nanos); sectionUnpark[section].record(nanos); }
+        void lockWait(int section, long nanos) { lockWait[section].record(nanos); }
+        void batch(int events, long nanos) { batch.record(nanos); batchEvents.add(events); }
+        void failed(int kind) { failures[kind].increment(); }
+        public long failures(int kind) { return failures[kind].sum(); }
+
+        private static LatencyHistogram histogram() { return ENABLED ? new LatencyHistogram() : null; }
+        private Map<String, LatencyHistogram> histograms() {
+            Map<String, LatencyHistogram> m = new LinkedHashMap<>();
+            if (!ENABLED) return m;
+            m.put("park", park); m.put("unpark", unpark); m.put("slotSearch", slotSearch); m.put("batch", batch);
+            m.put("journalSync", journalSync); m.put("exportHistoryToCSV", export); m.put("snapshot", snapshot);
+            for (int i = 0; i < sectionNames.length; i++) {
+                m.put("section." + sectionNames[i] + ".park", sectionPark[i]);
+                m.put("section." + sectionNames[i] + ".unpark", sectionUnpark[i]);
+                m.put("section." + sectionNames[i] + ".lockWait", lockWait[i]);
+            }
+            return m;
+        }
+        // Every metric as a flat name -> value map (latencies in nanoseconds).
+        public Map<String, Long> values() {
+            Map<String, Long> v = new LinkedHashMap<>();
+            for (Map.Entry<String, LatencyHistogram> e : histograms().entrySet()) {
+                LatencyHistogram h = e.getValue();
+                v.put(e.getKey() + ".count", h.count());
+                v.put(e.getKey() + ".meanNanos", h.mean());
+                v.put(e.getKey() + ".p50Nanos", h.percentile(50));
+                v.put(e.getKey() + ".p99Nanos", h.percentile(99));
+                v.put(e.getKey() + ".p999Nanos", h.percentile(99.9));
+                v.put(e.getKey() + ".maxNanos", h.max());
+            }
+            v.put("batch.events", batchEvents.sum());
+            for (int i = 0; i < FAILURES.length; i++) v.put("failures." + FAILURES[i], failures[i].sum());
+            return v;
+        }
+        public String dump() {
+            StringBuilder sb = new StringBuilder(String.format("%-28s %10s %10s %10s %10s %10s %10s%n", "operation (us)", "count", "mean", "p50", "p99", "p99.9", "max"));
+            for (Map.Entry<String, LatencyHistogram> e : histograms().entrySet()) {
+                LatencyHistogram h = e.getValue();
+                if (h.count() == 0) continue;
+                sb.append(String.format("%-28s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n", e.getKey(), h.count(), h.mean() / 1e3,
+                        h.percentile(50) / 1e3, h.percentile(99) / 1e3, h.percentile(99.9) / 1e3, h.max() / 1e3));
+            }
+            sb.append("batch events: ").append(batchEvents.sum()).append(String.format("%n")).append("failures:");
+            for (int i = 0; i < FAILURES.length; i++) sb.append(' ').append(FAILURES[i]).append('=').append(failures[i].sum());
+            return sb.append(String.format("%n")).toString();
+        }
+
+        void register(Path dataDir) {
+            try {
+                javax.management.ObjectName name = new javax.management.ObjectName("parking:type=ParkingLot,dir=" + javax.management.ObjectName.quote(dataDir.toAbsolutePath().toString()));
+                java.lang.management.ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+                registered = name;
+            } catch (javax.management.JMException ex) {
+                // Another lot already published this directory; its metrics stay visible.
+            }
+        }
+        void unregister() {
+            if (registered == null) return;
+            try { java.lang.management.ManagementFactory.getPlatformMBeanServer().unregisterMBean(registered); }
+            catch (javax.management.JMException ex) { }
+            registered = null;
+        }
+        @Override public Object getAttribute(String attribute) throws javax.management.AttributeNotFoundException {
+            Long v = values().get(attribute);
+            if (v == null) throw new javax.management.AttributeNotFoundException(attribute);
+            return v;
+        }
+        @Override public javax.management.AttributeList getAttributes(String[] attributes) {
+            Map<String, Long> v = values();
+            javax.management.AttributeList list = new javax.management.AttributeList();
+            for (String a : attributes) if (v.containsKey(a)) list.add(new javax.management.Attribute(a, v.get(a)));
+            return list;
+        }
+        @Override public void setAttribute(javax.management.Attribute attribute) throws javax.management.AttributeNotFoundException {
+            throw new javax.management.AttributeNotFoundException("Read-only: " + attribute.getName());
+        }
+        @Override public javax.management.AttributeList setAttributes(javax.management.AttributeList attributes) { return new javax.management.AttributeList(); }
+        @Override public Object invoke(String action, Object[] params, String[] signature) throws javax.management.ReflectionException {
+            if (action.equals("dump")) return dump();
+            throw new javax.management.ReflectionException(new NoSuchMethodException(action));
+        }
+        @Override public javax.management.MBeanInfo getMBeanInfo() {
+            List<javax.management.MBeanAttributeInfo> attrs = new ArrayList<>();
+            for (String name : values().keySet()) attrs.add(new javax.management.MBeanAttributeInfo(name, "long", name, true, false, false));
+            javax.management.MBeanOperationInfo dump = new javax.management.MBeanOperationInfo("dump", "Text dump of all metrics",
+                    new javax.management.MBeanParameterInfo[0], "java.lang.String", javax.management.MBeanOperationInfo.INFO);
+            return new javax.management.MBeanInfo(getClass().getName(), "Parking lot hot-path metrics", attrs.toArray(new javax.management.MBeanAttributeInfo[0]),
+                    null, new javax.management.MBeanOperationInfo[] { dump }, null);
+        }
+    }
+
+    // One parking in compact form: epoch seconds instead of LocalDateTime, the vehicle type as
+    // its code, the slot as a packed section/offset int (slot ids are formatted from the Section
+    // on demand) and an interned plate. The object accessors build their values when called.
     static class LogEntry {
         private final String plate;
-        private final String vehicleType;
-        private final String slotId;
-        private final LocalDateTime entryTime;
-        private LocalDateTime exitTime;
-        private double paidAmount;
-        LogEntry(String plate, String vehicleType, String slotId, LocalDateTime entryTime) {
-            this.plate = plate; this.vehicleType = vehicleType; this.slotId = slotId; this.entryTime = entryTime;
-        }
-        public void setExit(LocalDateTime t) { this.exitTime = t; }
-        public void setPaid(double p) { this.paidAmount = p; }
-        public double getPaid() { return paidAmount; }
+        private final byte type;
+        private final Section section;
+        final int slot;
+        private final long entrySecond;
+        private volatile long exitSecond = HistoryLog.ACTIVE;
+        private volatile long paidCents;
+        long seq;
+        LogEntry(String plate, int typeCode, Section section, int offset, long entrySecond) {
+            this.plate = plate; this.type = (byte) typeCode; this.section = section; this.entrySecond = entrySecond;
+            this.slot = section == null ? -1 : LotTopology.slot(section.id, offset);
+        }
+        void setExit(long exitSecond, long paidCents) { this.paidCents = paidCents; this.exitSecond = exitSecond; }
+        void putSlotId(ByteBuffer b) { section.putSlotId(b, LotTopology.offsetOf(slot)); }
+        public int typeCode() { return type; }
+        public long entrySecond() { return entrySecond; }
+        public long exitSecond() { return exitSecond; }
+        public boolean isActive() { return exitSecond == HistoryLog.ACTIVE; }
+        public long getPaidCents() { return paidCents; }
+        public double getPaid() { return paidCents / 100.0; }
         public String getPlate() { return plate; }
-        public String getVehicleTypeShort() { return vehicleType; }
-        public String getSlotId() { return slotId; }
-        public LocalDateTime getEntryTime() { return entryTime; }
-        public LocalDateTime getExitTime() { return exitTime; }
+        public String getVehicleTypeShort() { return HistoryLog.TYPE_NAMES[type]; }
+        public String getSlotId() { return section.slotId(LotTopology.offsetOf(slot)); }
+        public LocalDateTime getEntryTime() { return HistoryLog.dateTime(entrySecond); }
+        public LocalDateTime getExitTime() { long x = exitSecond; return x == HistoryLog.ACTIVE ? null : HistoryLog.dateTime(x); }
         public long getDurationMinutes() {
-            LocalDateTime end = exitTime == null ? LocalDateTime.now() : exitTime;
-            return Duration.between(entryTime, end).toMinutes();
+            long x = exitSecond;
+            return Math.floorDiv((x == HistoryLog.ACTIVE ? HistoryLog.epochSecond(LocalDateTime.now(section.clock)) : x) - entrySecond, 60);
         }
         @Override public String toString() {
-            String exit = exitTime == null ? "ACTIVE" : exitTime.format(TF);
-            String paid = paidAmount > 0 ? " | Paid: ₱" + String.format("%.2f", paidAmount) : "";
-            return String.format("%s | %s | %s -> %s | %d mins%s", plate, vehicleType, entryTime.format(TF), exit, getDurationMinutes(), paid);
+            LocalDateTime exit = getExitTime();
+            String paid = paidCents > 0 ? " | Paid: ₱" + String.format("%.2f", getPaid()) : "";
+            return String.format("%s | %s | %s -> %s | %d mins%s", plate, getVehicleTypeShort(), getEntryTime().format(TF), exit == null ? "ACTIVE" : exit.format(TF), getDurationMinutes(), paid);
+        }
+    }
+
+    // Active plates indexed for operator and camera lookups: a sorted map for prefix scans with
+    // keyset pagination, and a deletion index for edit-distance-1 matches. Each plate is filed
+    // under itself and under every one-character deletion of it, so any two plates one edit apart
+    // share a key. Keys are 64-bit hashes of those variants in open-addressing tables (no key
+    // strings are built); hash collisions only add candidates, which are verified anyway. The
+    // tables are striped by key so gates filing different plates rarely meet on one monitor.
+    static class ActivePlateIndex {
+        private static final int STRIPES = 16;
+        private ConcurrentSkipListMap<String, LogEntry> sorted = new ConcurrentSkipListMap<>();
+        private final Table[] tables = new Table[STRIPES];
+        // False while a recovery load runs; backlog (guarded by this) holds the changes to apply
+        // after it, in order.
+        private volatile boolean ready = true;
+        private List<Object[]> backlog;
+        ActivePlateIndex() { for (int i = 0; i < STRIPES; i++) tables[i] = new Table(1024); }
+
+        void add(LogEntry le) { if (ready || !deferred(true, le)) file(le); }
+        void remove(LogEntry le) { if (ready || !deferred(false, le)) unfile(le); }
+        private void file(LogEntry le) {
+            String plate = le.getPlate();
+            sorted.put(plate, le);
+            for (int i = -1; i < plate.length(); i++) if (variant(plate, i)) { long k = key(plate, i); Table t = table(k); synchronized (t) { t.file(k, plate); } }
+        }
+        private void unfile(LogEntry le) {
+            String plate = le.getPlate();
+            if (!sorted.remove(plate, le)) return;
+            for (int i = -1; i < plate.length(); i++) if (variant(plate, i)) { long k = key(plate, i); Table t = table(k); synchronized (t) { t.unfile(k, plate); } }
+        }
+        // Bulk load for recovery, into an empty index. The lot is serving gates before the index is
+        // built: a background thread builds the sorted map from plate order in one pass and files
+        // every plate into tables sized once. Adds and removes made meanwhile queue up and are
+        // applied in order when the build is done; lookups wait for it.
+        void load(Collection<LogEntry> active) {
+            if (active.isEmpty()) return;
+            List<LogEntry> entries = new ArrayList<>(active);
+            synchronized (this) { backlog = new ArrayList<>(); ready = false; }
+            Thread t = new Thread(() -> build(entries), "plate-index-load");
+            t.setDaemon(true);
+            t.start();
+        }
+        private void build(List<LogEntry> entries) {
+            try {
+                TreeMap<String, LogEntry> byPlate = new TreeMap<>();
+                long variants = 0;
+                for (LogEntry le : entries) { byPlate.put(le.getPlate(), le); variants += le.getPlate().length() + 1; }
+                sorted = new ConcurrentSkipListMap<>(byPlate);
+                int cap = Integer.highestOneBit((int) Math.max(256, variants / STRIPES)) * 4;
+                for (int i = 0; i < STRIPES; i++) tables[i] = new Table(cap);
+                for (String plate : byPlate.keySet()) {
+                    for (int i = -1; i < plate.length(); i++) if (variant(plate, i)) { long k = key(plate, i); table(k).file(k, plate); }
+                }
+            } finally {
+                synchronized (this) {
+                    for (Object[] op : backlog) { if (op[0] == Boolean.TRUE) file((LogEntry) op[1]); else unfile((LogEntry) op[1]); }
+                    backlog = null;
+                    ready = true;
+                    notifyAll();
+                }
+            }
+        }
+        // True if the index is still being built and the change was queued for later.
+        private synchronized boolean deferred(boolean add, LogEntry le) {
+            if (ready) return false;
+            backlog.add(new Object[] { add, le });
+            return true;
+        }
+        private void awaitReady() {
+            if (ready) return;
+            boolean interrupted = false;
+            synchronized (this) {
+                while (!ready) { try { wait(); } catch (InterruptedException ex) { interrupted = true; } }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+        // Deleting either of two equal neighbours gives the same string; only the first is filed.
+        private static boolean variant(String plate, int deleted) { return deleted <= 0 || plate.charAt(deleted) != plate.charAt(deleted - 1); }
+        // FNV-1a over the plate with one character (or none, for -1) left out.
+        private static long key(String plate, int deleted) {
+            long h = 0xcbf29ce484222325L;
+            for (int i = 0; i < plate.length(); i++) if (i != deleted) h = (h ^ plate.charAt(i)) * 0x100000001b3L;
+            return h;
+        }
+        private Table table(long k) { return tables[(int) (k >>> 60)]; }
+        // Multi-plate bins are copied, as writers change them in place.
+        private Object bin(long k) {
+            Table t = table(k);
+            synchronized (t) { Object v = t.bin(k); return v instanceof String[] ? ((String[]) v).clone() : v; }
+        }
+
+        // One stripe, guarded by its own monitor: key hash -> the plate filed under it (String)
+        // or the plates (String[]).
+        private static final class Table {
+            private long[] keys;
+            private Object[] bins;
+            private int used;
+            Table(int capacity) { keys = new long[capacity]; bins = new Object[capacity]; }
+            private int home(long k) { return (int) (k ^ (k >>> 32)) & (keys.length - 1); }
+            void file(long k, String plate) {
+                if ((used + 1) * 2 > keys.length) grow();
+                int i = home(k);
+                while (bins[i] != null) {
+                    if (keys[i] == k) { bins[i] = with(bins[i], plate); return; }
+                    i = (i + 1) & (keys.length - 1);
+                }
+                keys[i] = k;
+                bins[i] = plate;
+                used++;
+            }
+            void unfile(long k, String plate) {
+                for (int i = home(k); bins[i] != null; i = (i + 1) & (keys.length - 1)) {
+                    if (keys[i] != k) continue;
+                    bins[i] = without(bins[i], plate);
+                    if (bins[i] == null) vacate(i);
+                    return;
+                }
+            }
+            // Backward-shift deletion: pulls later entries of the probe run into the hole.
+            private void vacate(int hole) {
+                used--;
+                int mask = keys.length - 1;
+                for (int j = (hole + 1) & mask; bins[j] != null; j = (j + 1) & mask) {
+                    int h = home(keys[j]);
+                    if (((j - h) & mask) >= ((j - hole) & mask)) { keys[hole] = keys[j]; bins[hole] = bins[j]; bins[j] = null; hole = j; }
+                }
+            }
+            private void grow() {
+                long[] ok = keys;
+                Object[] ob = bins;
+                keys = new long[ok.length * 2];
+                bins = new Object[ob.length * 2];
+                for (int i = 0; i < ok.length; i++) {
+                    if (ob[i] == null) continue;
+                    int j = home(ok[i]);
+                    while (bins[j] != null) j = (j + 1) & (keys.length - 1);
+                    keys[j] = ok[i];
+                    bins[j] = ob[i];
+                }
+            }
+            Object bin(long k) {
+                for (int i = home(k); bins[i] != null; i = (i + 1) & (keys.length - 1)) if (keys[i] == k) return bins[i];
+                return null;
+            }
+        }
+        // Bins holding several plates are arrays with spare capacity at the end (trailing nulls).
+        // A plate never files the same variant twice (see variant), so appends skip the scan.
+        private static Object with(Object v, String plate) {
+            if (v == null) return plate;
+            if (v instanceof String) return new String[] { (String) v, plate, null, null };
+            String[] a = (String[]) v;
+            if (a[a.length - 1] != null) { a = Arrays.copyOf(a, a.length * 2); a[a.length / 2] = plate; return a; }
+            int n = a.length;
+            while (a[n - 1] == null) n--;
+            a[n] = plate;
+            return a;
+        }
+        private static Object without(Object v, String plate) {
+            if (v instanceof String) return v.equals(plate) ? null : v;
+            String[] a = (String[]) v;
+            int n = 0, at = -1;
+            for (; n < a.length && a[n] != null; n++) if (at < 0 && a[n].equals(plate)) at = n;
+            if (at < 0) return v;
+            if (n == 2) return a[1 - at];
+            a[at] = a[n - 1];
+            a[n - 1] = null;
+            return a;
+        }
+
+        public int size() { awaitReady(); return sorted.size(); }
+        public LogEntry exact(String plate) { awaitReady(); return sorted.get(plate); }
+        // Up to limit plates starting with prefix, in plate order, after the plate `after`
+        // (null for the first page); pass the last plate of a page to get the next one.
+        public List<LogEntry> prefix(String prefix, String after, int limit) {
+            awaitReady();
+            NavigableMap<String, LogEntry> range = after != null && after.compareTo(prefix) >= 0
+                    ? sorted.subMap(after, false, prefix + Character.MAX_VALUE, false)
+                    : sorted.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+            List<LogEntry> res = new ArrayList<>(Math.min(limit, 64));
+            for (LogEntry le : range.values()) { if (res.size() >= limit) break; res.add(le); }
+            return res;
+        }
+        // Plates within one insertion, deletion or substitution of the given plate, in plate order.
+        public List<LogEntry> fuzzy(String plate, int limit) {
+            awaitReady();
+            TreeSet<String> found = new TreeSet<>();
+            for (int i = -1; i < plate.length(); i++) {
+                Object v = bin(key(plate, i));
+                if (v instanceof String) found.add((String) v);
+                else if (v != null) for (String p : (String[]) v) { if (p == null) break; found.add(p); }
+            }
+            List<LogEntry> res = new ArrayList<>();
+            for (String p : found) {
+                if (res.size() >= limit) break;
+                LogEntry le = sorted.get(p);
+                if (le != null && withinOneEdit(plate, p)) res.add(le);
+            }
+            return res;
+        }
+        static boolean withinOneEdit(String a, String b) {
+            if (a.length() > b.length()) { String t = a; a = b; b = t; }
+            if (b.length() - a.length() > 1) return false;
+            int i = 0;
+            while (i < a.length() && a.charAt(i) == b.charAt(i)) i++;
+            if (i == a.length()) return true;
+            return a.length() == b.length() ? a.regionMatches(i + 1, b, i + 1, a.length() - i - 1) : a.regionMatches(i, b, i + 1, a.length() - i);
+        }
+    }
+
+    // The newest history rows as parallel primitive arrays, indexed by history seq modulo the
+    // capacity (appends take consecutive seqs). Exits patch their row while it is in the window;
+    // LogEntry views are only built when the rows are displayed.
+    static class RecentTail {
+        private final int cap;
+        private final long[] seq, entry, exit, paid;
+        private final String[] plate;
+        private final byte[] type;
+        private final int[] slot;
+        private long next;
+        RecentTail(int cap) {
+            this.cap = cap;
+            seq = new long[cap]; entry = new long[cap]; exit = new long[cap]; paid = new long[cap];
+            plate = new String[cap]; type = new byte[cap]; slot = new int[cap];
+            Arrays.fill(seq, -1);
+        }
+        synchronized void add(LogEntry le) {
+            int i = (int) (le.seq % cap);
+            seq[i] = le.seq; plate[i] = le.getPlate(); type[i] = (byte) le.typeCode(); slot[i] = le.slot;
+            entry[i] = le.entrySecond(); exit[i] = le.exitSecond(); paid[i] = le.getPaidCents();
+            next = Math.max(next, le.seq + 1);
+        }
+        synchronized void exit(long s, long exitSecond, long paidCents) {
+            int i = (int) (s % cap);
+            if (seq[i] == s) { exit[i] = exitSecond; paid[i] = paidCents; }
+        }
+        // Up to limit of the newest rows, oldest first.
+        synchronized List<LogEntry> newest(int limit, Section[] sections) {
+            ArrayDeque<LogEntry> res = new ArrayDeque<>();
+            for (long s = next - 1; s >= Math.max(0, next - cap) && res.size() < limit; s--) {
+                int i = (int) (s % cap);
+                if (seq[i] != s) continue;
+                LogEntry le = new LogEntry(plate[i], type[i], sections[LotTopology.sectionOf(slot[i])], LotTopology.offsetOf(slot[i]), entry[i]);
+                le.seq = s;
+                if (exit[i] != HistoryLog.ACTIVE) le.setExit(exit[i], paid[i]);
+                res.addFirst(le);
+            }
+            return new ArrayList<>(res);
         }
     }
 
@@ -332,124 +2489,703 @@ public class ParkingSystem {
         final LocalDateTime entry;
         final LocalDateTime exit;
         final int hoursBilled;
+        final long amountCents;
         final double amount;
-        Receipt(String plate, String vehicleType, String slotId, LocalDateTime entry, LocalDateTime exit, int hoursBilled, double amount) {
-            this.plate=plate; this.vehicleType=vehicleType; this.slotId=slotId; this.entry=entry; this.exit=exit; this.hoursBilled=hoursBilled; this.amount=amount;
+        Receipt(String plate, String vehicleType, String slotId, LocalDateTime entry, LocalDateTime exit, int hoursBilled, long amountCents) {
+            this.plate=plate; this.vehicleType=vehicleType; this.slotId=slotId; this.entry=entry; this.exit=exit; this.hoursBilled=hoursBilled; this.amountCents=amountCents; this.amount=amountCents / 100.0;
         }
     }
 
     static class UnparkResult { final boolean success; final String message; final Receipt receipt; UnparkResult(boolean s, String m, Receipt r){ success=s; message=m; receipt=r; } }
 
+    // One gate event for ParkingLot.applyBatch: a park (vehicle set) or an unpark.
+    static class GateEvent {
+        final String plate;
+        final Vehicle vehicle;
+        final LocalDateTime time;
+        private GateEvent(String plate, Vehicle vehicle, LocalDateTime time) { this.plate = plate; this.vehicle = vehicle; this.time = time; }
+        static GateEvent park(Vehicle v, LocalDateTime entryTime) { return new GateEvent(v.getPlate(), v, entryTime); }
+        static GateEvent unpark(String plate, LocalDateTime exitTime) { return new GateEvent(plate, null, exitTime); }
+    }
+
+    // Outcome of applyBatch, one status byte and entry reference per event. Messages and receipts
+    // are only built when asked for, with the same text the single-event calls return.
+    static class BatchResult {
+        static final byte OK = 0, DUPLICATE = 1, NO_SLOT = 2, NOT_ACTIVE = 3, PLATE_TOO_LONG = 4, IO_ERROR = 5;
+        private final List<GateEvent> events;
+        final byte[] status;
+        final LogEntry[] entries;
+        int succeeded;
+        private Map<Integer, String> errors;
+        BatchResult(List<GateEvent> events) { this.events = events; status = new byte[events.size()]; entries = new LogEntry[events.size()]; }
+        void fail(int i, String message) {
+            status[i] = IO_ERROR;
+            if (errors == null) errors = new HashMap<>();
+            errors.put(i, message);
+        }
+        public int size() { return status.length; }
+        public int succeeded() { return succeeded; }
+        public boolean success(int i) { return status[i] == OK; }
+        public byte status(int i) { return status[i]; }
+        public String slotId(int i) { return entries[i] == null ? null : entries[i].getSlotId(); }
+        public String message(int i) {
+            GateEvent ev = events.get(i);
+            switch (status[i]) {
+                case DUPLICATE: return "Vehicle already parked (active).";
+                case NO_SLOT: return "No available slot for type: " + ev.vehicle.getTypeName();
+                case NOT_ACTIVE: return "No active parked vehicle with plate " + ev.plate;
+                case PLATE_TOO_LONG: return "Plate number too long (max " + HistoryLog.PLATE_MAX + " characters).";
+                case IO_ERROR: return errors.get(i);
+                default:
+                    LogEntry le = entries[i];
+                    if (ev.vehicle != null) return "Parked " + ev.plate + " at " + le.getSlotId() + " (" + ev.vehicle.getTypeName() + ") at " + ev.time.format(TF);
+                    return String.format("Exited %s from %s | Duration: %d minutes | Amount: ₱%.2f", ev.plate, le.getSlotId(), Math.floorDiv(le.exitSecond() - le.entrySecond(), 60), le.getPaid());
+            }
+        }
+        // Receipt for a successful unpark event, else null.
+        public Receipt receipt(int i) {
+            GateEvent ev = events.get(i);
+            if (status[i] != OK || ev.vehicle != null) return null;
+            LogEntry le = entries[i];
+            long minutes = Math.floorDiv(le.exitSecond() - le.entrySecond(), 60);
+            return new Receipt(ev.plate, le.getVehicleTypeShort(), le.getSlotId(), le.getEntryTime(), le.getExitTime(), Tariff.billedHours(minutes), le.getPaidCents());
+        }
+    }
+
+    // Several independent lots (shards), each with its own data directory and executor, behind one
+    // park/unpark front. A global plate directory, partitioned by plate hash, records which shard
+    // holds each active plate, so the no-double-parking rule holds across shards. A park tries the
+    // plate's home shard (plate hash) first and overflows to the others in ring order.
+    static class LotCluster implements Closeable {
+        private static final int PENDING = -1;
+        private final ParkingLot[] lots;
+        private final ExecutorService[] executors;
+        private final List<ConcurrentMap<String, Integer>> directory;
+
+        LotCluster(Path baseDir, List<LotTopology> shardTopologies, int threadsPerShard, int directoryPartitions) {
+            int n = shardTopologies.size();
+            lots = new ParkingLot[n];
+            executors = new ExecutorService[n];
+            directory = new ArrayList<>(Math.max(1, directoryPartitions));
+            for (int p = 0; p < Math.max(1, directoryPartitions); p++) directory.add(new ConcurrentHashMap<>());
+            for (int i = 0; i < n; i++) {
+                lots[i] = new ParkingLot(baseDir.resolve("shard-" + i), shardTopologies.get(i));
+                int shard = i;
+                executors[i] = Executors.newFixedThreadPool(Math.max(1, threadsPerShard), r -> {
+                    Thread t = new Thread(r, "lot-shard-" + shard);
+                    t.setDaemon(true);
+                    return t;
+                });
+                for (LogEntry le : lots[i].activeList()) partition(le.getPlate()).put(le.getPlate(), i);
+            }
+        }
+        private ConcurrentMap<String, Integer> partition(String plate) { return directory.get(Math.floorMod(plate.hashCode(), directory.size())); }
+        private <T> T on(int shard, Callable<T> task) {
+            try { return executors[shard].submit(task).get(); }
+            catch (InterruptedException ex) { Thread.currentThread().interrupt(); throw new IllegalStateException("Interrupted waiting for shard " + shard); }
+            catch (ExecutionException ex) {
+                if (ex.getCause() instanceof RuntimeException) throw (RuntimeException) ex.getCause();
+                throw new IllegalStateException(ex.getCause());
+            }
+        }
+        public int shardCount() { return lots.length; }
+        public ParkingLot shard(int i) { return lots[i]; }
+        // Shard holding the plate, or -1.
+        public int locate(String plate) { Integer s = partition(plate).get(plate); return s == null ? -1 : s; }
+        public Result park(Vehicle v, LocalDateTime entryTime) {
+            String plate = v.getPlate();
+            ConcurrentMap<String, Integer> part = partition(plate);
+            if (part.putIfAbsent(plate, PENDING) != null) return new Result(false, "Vehicle already parked (active).");
+            int home = Math.floorMod(plate.hashCode(), lots.length);
+            Result last = null;
+            for (int k = 0; k < lots.length; k++) {
+                int shard = (home + k) % lots.length;
+                try { last = on(shard, () -> lots[shard].park(v, entryTime)); }
+                catch (RuntimeException ex) { part.remove(plate, PENDING); throw ex; }
+                if (last.success) { part.put(plate, shard); return last; }
+            }
+            part.remove(plate, PENDING);
+            return last != null ? last : new Result(false, "No available slot for type: " + v.getTypeName());
+        }
+        public UnparkResult unparkWithPayment(String plate, LocalDateTime exitTime) {
+            ConcurrentMap<String, Integer> part = partition(plate);
+            Integer shard = part.get(plate);
+            if (shard == null || shard == PENDING) return new UnparkResult(false, "No active parked vehicle with plate " + plate, null);
+            UnparkResult r = on(shard, () -> lots[shard].unparkWithPayment(plate, exitTime));
+            if (r.success) part.remove(plate, shard);
+            return r;
+        }
+        // Per-section vacancies summed over all shards. Each shard's counts are self-consistent;
+        // the shards are read one after another.
+        public Map<String, Integer> vacancySummary() {
+            Map<String, Integer> m = new LinkedHashMap<>();
+            for (ParkingLot lot : lots) for (Map.Entry<String, Integer> e : lot.vacancySummary().entrySet()) m.merge(e.getKey(), e.getValue(), Integer::sum);
+            return m;
+        }
+        public double occupancyRate() {
+            long total = 0, used = 0;
+            for (ParkingLot lot : lots) { OccupancySnapshot snap = lot.occupancySnapshot(); total += snap.totalSlots(); used += snap.totalUsed(); }
+            return total == 0 ? 0.0 : used * 100.0 / total;
+        }
+        public int getActiveCount() { int n = 0; for (ParkingLot lot : lots) n += lot.getActiveCount(); return n; }
+        public long totalRevenueCents() { long r = 0; for (ParkingLot lot : lots) r += lot.totalRevenueCents(); return r; }
+        public double totalRevenue() { return totalRevenueCents() / 100.0; }
+        @Override public void close() {
+            for (ExecutorService ex : executors) ex.shutdown();
+            for (ParkingLot lot : lots) lot.close();
+        }
+    }
+
     static class ParkingLot {
-        private final Map<String, ParkingSlot> slots = new LinkedHashMap<>();
-        private final Map<String, LogEntry> activeByPlate = new LinkedHashMap<>();
-        private final List<LogEntry> history = new ArrayList<>();
-        private double revenue = 0.0;
-        ParkingLot() {
-            for (int i = 1; i <= 60; i++) slots.put(String.format("M%02d", i), new ParkingSlot(String.format("M%02d", i)));
-            for (int i = 1; i <= 30; i++) slots.put(String.format("A%02d", i), new ParkingSlot(String.format("A%02d", i)));
-            for (int i = 1; i <= 30; i++) slots.put(String.format("B%02d", i), new ParkingSlot(String.format("B%02d", i)));
-        }
-        public synchronized Result park(Vehicle v, LocalDateTime entryTime) {
-            if (activeByPlate.containsKey(v.getPlate())) return new Result(false, "Vehicle already parked (active).");
-            Optional<ParkingSlot> opt = findAvailableSlot(v);
-            if (opt.isEmpty()) return new Result(false, "No available slot for type: " + v.getTypeName());
-            ParkingSlot s = opt.get();
-            s.occupy(v);
-            LogEntry le = new LogEntry(v.getPlate(), v.getTypeName(), s.getId(), entryTime);
-            activeByPlate.put(v.getPlate(), le);
-            history.add(le);
-            return new Result(true, "Parked " + v.getPlate() + " at " + s.getId() + " (" + v.getTypeName() + ") at " + entryTime.format(TF));
-        }
-        private Optional<ParkingSlot> findAvailableSlot(Vehicle v) {
-            String pref = v.preferredSlotPrefix();
-            if (pref.equals("M")) {
-                return slots.values().stream().filter(s -> s.getId().startsWith("M") && !s.isOccupied()).findFirst();
-            }
-            if (pref.equals("A")) {
-                Optional<ParkingSlot> a = slots.values().stream().filter(s -> s.getId().startsWith("A") && !s.isOccupied()).findFirst();
-                if (a.isPresent()) return a;
-                return slots.values().stream().filter(s -> s.getId().startsWith("B") && !s.isOccupied()).findFirst();
+        // Placeholder that holds a plate in activeByPlate while its park call is still claiming a slot.
+        private static final LogEntry RESERVED = new LogEntry("", 0, null, 0, HistoryLog.ACTIVE);
+        private static final int PLATE_CACHE = 1 << 14;
+        private final ConcurrentMap<String, LogEntry> activeByPlate = new ConcurrentHashMap<>();
+        private static final int RECENT_CAP = 256;
+        private static final long SNAPSHOT_MAGIC = 0x50524B534E415032L;
+        private static final int SNAPSHOT_EVERY = 50_000;
+        private final Path dataDir;
+        private final HistoryLog history;
+        private final Journal journal;
+        private final AtomicBoolean snapshotting = new AtomicBoolean();
+        private final Analytics analytics = new Analytics();
+        private final RecentTail recent = new RecentTail(RECENT_CAP);
+        private final ActivePlateIndex plateIndex = new ActivePlateIndex();
+        private final Metrics metrics;
+        private final String[] plates = new String[PLATE_CACHE];
+        private final LotTopology topology;
+        private final Section[] sections;
+        private final Map<String, Section> byPrefix = new HashMap<>();
+        private final LongAdder revenueCents = new LongAdder();
+        private volatile Tariff tariff;
+        // Time source for gate events and live durations; simulations pass a VirtualClock.
+        private final Clock clock;
+        ParkingLot() { this(Paths.get("parking-data")); }
+        ParkingLot(Path dataDir) { this(dataDir, LotTopology.standard(60, 30, 30)); }
+        ParkingLot(Path dataDir, int motoSlots, int aSlots, int bSlots) { this(dataDir, LotTopology.standard(motoSlots, aSlots, bSlots)); }
+        ParkingLot(Path dataDir, LotTopology topology) { this(dataDir, topology, Tariff.standard()); }
+        ParkingLot(Path dataDir, LotTopology topology, Tariff tariff) { this(dataDir, topology, tariff, Clock.systemDefaultZone()); }
+        ParkingLot(Path dataDir, LotTopology topology, Tariff tariff, Clock clock) {
+            this.dataDir = dataDir;
+            this.topology = topology;
+            this.tariff = tariff;
+            this.clock = clock;
+            List<LotTopology.SectionDef> defs = topology.sections();
+            sections = new Section[defs.size()];
+            for (int i = 0; i < sections.length; i++) { sections[i] = new Section(i, defs.get(i), clock); byPrefix.put(sections[i].prefix, sections[i]); }
+            String[] prefixes = new String[sections.length];
+            for (int i = 0; i < sections.length; i++) prefixes[i] = sections[i].prefix;
+            metrics = new Metrics(prefixes);
+            if (Metrics.ENABLED) metrics.register(dataDir);
+            try { history = new HistoryLog(dataDir.resolve("history"), 1 << 16); }
+            catch (IOException ex) { metrics.unregister(); throw new UncheckedIOException(ex); }
+            try {
+                journal = new Journal(dataDir.resolve("journal"), recover());
+                seedRecent();
+                snapshot();
+                plateIndex.load(activeByPlate.values());
+            } catch (IOException ex) {
+                metrics.unregister();
+                try { history.close(); } catch (IOException suppressed) { ex.addSuppressed(suppressed); }
+                throw new UncheckedIOException(ex);
+            }
+        }
+        // Rebuilds active parkings and revenue from the latest snapshot plus every journal
+        // generation after it; returns the generation the new journal should continue from.
+        private long recover() throws IOException {
+            Path snap = dataDir.resolve("snapshot.bin");
+            long gen = 0;
+            // Without a snapshot (or with one written before it carried a mark) every record
+            // already on disk is kept.
+            long historyMark = history.size();
+            if (Files.exists(snap)) {
+                try (FileChannel in = FileChannel.open(snap, StandardOpenOption.READ)) {
+                    ByteBuffer b = ByteBuffer.allocate((int) in.size());
+                    while (b.hasRemaining() && in.read(b) > 0) { }
+                    b.flip();
+                    if (b.getLong() != SNAPSHOT_MAGIC) throw new IOException("Corrupt snapshot: " + snap);
+                    gen = b.getLong();
+                    revenueCents.add(b.getLong());
+                    int count = b.getInt();
+                    HistoryRecord r = new HistoryRecord(b);
+                    BitSet restored = new BitSet();
+                    for (int i = 0; i < count; i++) {
+                        int off = b.position() + i * HistoryLog.RECORD_SIZE;
+                        r.at(off, b.getLong(off + 40));
+                        if (restorePark(r.plate(), r.typeCode(), r.slotId(), r.seq(), b.getLong(off + 48)) != null) restored.set((int) r.seq());
+                    }
+                    resetUnjournaledExits(restored);
+                    b.position(b.position() + count * HistoryLog.RECORD_SIZE);
+                    analytics.readFrom(b);
+                    if (b.remaining() >= Long.BYTES) historyMark = b.getLong();
+                }
             } else {
-                Optional<ParkingSlot> b = slots.values().stream().filter(s -> s.getId().startsWith("B") && !s.isOccupied()).findFirst();
-                if (b.isPresent()) return b;
-                return slots.values().stream().filter(s -> s.getId().startsWith("A") && !s.isOccupied()).findFirst();
+                history.forEach(r -> {
+                    revenueCents.add(r.paidCents());
+                    analytics.recordEntry(r.typeCode(), r.entrySecond());
+                    if (!r.isActive()) analytics.recordExit(r.entrySecond(), r.exitSecond(), r.paidCents());
+                });
+            }
+            Path jdir = dataDir.resolve("journal");
+            long mark = historyMark;
+            BitSet journaled = new BitSet();
+            for (long g = gen; Files.exists(Journal.path(jdir, g)); g++) {
+                IOException[] failed = new IOException[1];
+                Journal.replay(Journal.path(jdir, g), b -> {
+                    HistoryRecord r = new HistoryRecord(b);
+                    r.at(0, b.getLong(40));
+                    long time = b.getLong(48);
+                    try {
+                        if (b.get(34) == Journal.PARK) {
+                            LogEntry le = restorePark(r.plate(), r.typeCode(), r.slotId(), r.seq(), time);
+                            if (le != null) {
+                                history.put(le.seq, le);
+                                analytics.recordEntry(r.typeCode(), time);
+                                if (le.seq >= mark) journaled.set((int) (le.seq - mark));
+                            }
+                        } else {
+                            restoreExit(r.plate(), r.seq(), time, b.getLong(56), history);
+                        }
+                    } catch (IOException ex) { failed[0] = ex; }
+                });
+                if (failed[0] != null) throw failed[0];
+                gen = g + 1;
             }
+            discardUnjournaled(mark, journaled);
+            return gen;
         }
-        public synchronized UnparkResult unparkWithPayment(String plate, LocalDateTime exitTime) {
-            LogEntry active = activeByPlate.get(plate);
-            if (active == null) return new UnparkResult(false, "No active parked vehicle with plate " + plate, null);
-            ParkingSlot slot = slots.get(active.getSlotId());
-            if (slot != null) slot.vacate();
-            active.setExit(exitTime);
-            long minutes = active.getDurationMinutes();
-            int billedHours = (int) Math.ceil(minutes / 60.0);
-            double amount = computeFee(active.getVehicleTypeShort(), billedHours);
-            active.setPaid(amount);
-            revenue += amount;
+        // An exit patches history before its journal record is synced, so after a crash a vehicle
+        // the snapshot restores may show as exited and paid on disk. Those records are reset to
+        // active (replay then patches the journaled exits back in). The restored seqs are walked in
+        // order, reading their records a chunk at a time; only the patched ones are written.
+        private void resetUnjournaledExits(BitSet restored) throws IOException {
+            ByteBuffer chunk = ByteBuffer.allocate(HistoryLog.RECORD_SIZE * 1024);
+            long start = 0;
+            int got = 0;
+            for (long seq = restored.nextSetBit(0); seq >= 0; seq = restored.nextSetBit((int) seq + 1)) {
+                if (seq >= start + got) { chunk.clear(); start = seq; got = history.read(start, chunk); }
+                if (seq < start + got && chunk.getLong((int) (seq - start) * HistoryLog.RECORD_SIZE + 48) != HistoryLog.ACTIVE) history.update(seq, HistoryLog.ACTIVE, 0);
+            }
+        }
+        // History is written before the journal, so a crash can leave records of parks (and their
+        // exits) that were never journaled. Every record before the snapshot's mark was journaled
+        // when the snapshot rolled the journal; after it, only records of replayed parks are kept.
+        // Unjournaled events are the last ones appended, so their records are cut off as a tail;
+        // the few interleaved with replayed ones are discarded in place.
+        private void discardUnjournaled(long from, BitSet journaled) throws IOException {
+            long end = from + journaled.length();
+            for (int i = journaled.nextClearBit(0); from + i < end; i = journaled.nextClearBit(i + 1)) history.discard(from + i);
+            if (end < history.size()) history.truncate(end);
+        }
+        // The recent tail lives in memory only; it starts from the newest records on disk so reports
+        // still show them after a restart. Records on slots the topology no longer has are skipped.
+        private void seedRecent() throws IOException {
+            history.forEach(Math.max(0, history.size() - RECENT_CAP), r -> {
+                int slot = slotOf(r.slotId());
+                if (slot < 0) return;
+                LogEntry le = new LogEntry(r.plate(), r.typeCode(), sections[LotTopology.sectionOf(slot)], LotTopology.offsetOf(slot), r.entrySecond());
+                le.seq = r.seq();
+                if (!r.isActive()) le.setExit(r.exitSecond(), r.paidCents());
+                recent.add(le);
+            });
+        }
+        // Packed slot for a slot id, or -1 if no section of this topology has it.
+        private int slotOf(String slotId) {
+            int end = slotId.length();
+            while (end > 0 && Character.isDigit(slotId.charAt(end - 1))) end--;
+            Section sec = byPrefix.get(slotId.substring(0, end));
+            int off = sec == null ? -1 : sec.offsetOf(slotId);
+            return off < 0 ? -1 : LotTopology.slot(sec.id, off);
+        }
+        // A parking on a slot the current topology no longer has fails startup: carrying on would
+        // let the next snapshot drop the vehicle and its fee for good.
+        private LogEntry restorePark(String plate, int typeCode, String slotId, long seq, long entrySecond) throws IOException {
+            int slot = slotOf(slotId);
+            if (slot < 0) throw new IOException("Vehicle " + plate + " is parked in " + slotId + ", a slot the lot topology does not define; restore that slot before starting");
+            if (activeByPlate.containsKey(plate)) return null;
+            Section sec = sections[LotTopology.sectionOf(slot)];
+            int off = LotTopology.offsetOf(slot);
+            if (sec.occupants[off] != null) return null;
+            LogEntry le = new LogEntry(intern(plate), typeCode, sec, off, entrySecond);
+            le.seq = seq;
+            sec.occupants[off] = le;
+            sec.free.claim(off);
+            activeByPlate.put(plate, le);
+            return le;
+        }
+        private void restoreExit(String plate, long seq, long exitSecond, long paidCents, HistoryLog log) throws IOException {
+            LogEntry le = activeByPlate.get(plate);
+            if (le == null || le.seq != seq) return;
+            Section sec = sections[LotTopology.sectionOf(le.slot)];
+            sec.occupants[LotTopology.offsetOf(le.slot)] = null;
+            sec.free.release(LotTopology.offsetOf(le.slot));
             activeByPlate.remove(plate);
-            return new UnparkResult(true, String.format("Exited %s from %s | Duration: %d minutes | Amount: ₱%.2f", plate, active.getSlotId(), minutes, amount),
+            revenueCents.add(paidCents);
+            analytics.recordExit(le.entrySecond(), exitSecond, paidCents);
+            log.update(seq, exitSecond, paidCents);
+        }
+        // Captures active parkings and revenue under every stripe, rolls the journal at that same
+        // point, then writes the snapshot outside the locks and drops the journals it covers.
+        public void snapshot() throws IOException {
+            long t0 = Metrics.ENABLED ? System.nanoTime() : 0;
+            long gen;
+            long revenue, historyMark;
+            List<LogEntry> active;
+            ByteBuffer stats = ByteBuffer.allocate(Analytics.bytes());
+            lockAll();
+            try {
+                gen = journal.roll();
+                historyMark = history.size();
+                revenue = revenueCents.sum();
+                active = new ArrayList<>(activeByPlate.size());
+                // Plates still claiming a slot hold the shared RESERVED placeholder; skip every one.
+                for (LogEntry le : activeByPlate.values()) if (le != RESERVED) active.add(le);
+                analytics.writeTo(stats);
+            } finally { unlockAll(); }
+            history.force();
+            ByteBuffer b = ByteBuffer.allocate(28 + active.size() * HistoryLog.RECORD_SIZE + stats.capacity() + Long.BYTES);
+            b.putLong(SNAPSHOT_MAGIC).putLong(gen).putLong(revenue).putInt(active.size());
+            for (LogEntry le : active) {
+                int off = b.position();
+                HistoryLog.putString(b, le.getPlate(), HistoryLog.PLATE_MAX);
+                b.position(off + 24);
+                b.put((byte) le.typeCode());
+                le.putSlotId(b);
+                b.position(off + 40);
+                b.putLong(le.seq).putLong(le.entrySecond()).putLong(0);
+            }
+            b.put(stats.flip());
+            b.putLong(historyMark);
+            b.flip();
+            Path tmp = dataDir.resolve("snapshot.tmp");
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (b.hasRemaining()) out.write(b);
+                out.force(true);
+            }
+            Files.move(tmp, dataDir.resolve("snapshot.bin"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            for (long g = gen - 1; g >= 0 && Files.deleteIfExists(Journal.path(dataDir.resolve("journal"), g)); g--) { }
+            if (Metrics.ENABLED) metrics.snapshot.record(System.nanoTime() - t0);
+        }
+        private void maybeSnapshot() {
+            if (journal.records() < SNAPSHOT_EVERY || !snapshotting.compareAndSet(false, true)) return;
+            try { snapshot(); } catch (IOException ex) { throw new UncheckedIOException(ex); }
+            finally { snapshotting.set(false); }
+        }
+        private void sync(long ticket) {
+            long t0 = Metrics.ENABLED ? System.nanoTime() : 0;
+            try { journal.sync(ticket); } catch (IOException ex) { throw new UncheckedIOException(ex); }
+            if (Metrics.ENABLED) metrics.journalSync.record(System.nanoTime() - t0);
+            maybeSnapshot();
+        }
+        // Takes a stripe; with metrics on, only contended acquisitions (the fast tryLock failed)
+        // are timed and recorded.
+        private void acquire(Section sec) {
+            if (!Metrics.ENABLED) { sec.lock.lock(); return; }
+            if (sec.lock.tryLock()) return;
+            long t0 = System.nanoTime();
+            sec.lock.lock();
+            metrics.lockWait(sec.id, System.nanoTime() - t0);
+        }
+        // Each section is its own lock stripe; a park holds at most one stripe at a time and walks
+        // the overflow order, so gates on different sections never contend.
+        public Result park(Vehicle v, LocalDateTime entryTime) {
+            long t0 = Metrics.ENABLED ? System.nanoTime() : 0;
+            String plate = v.getPlate();
+            if (plate.getBytes(StandardCharsets.UTF_8).length > HistoryLog.PLATE_MAX) {
+                if (Metrics.ENABLED) metrics.failed(Metrics.PLATE_TOO_LONG);
+                return new Result(false, "Plate number too long (max " + HistoryLog.PLATE_MAX + " characters).");
+            }
+            if (activeByPlate.putIfAbsent(plate, RESERVED) != null) {
+                if (Metrics.ENABLED) metrics.failed(Metrics.ALREADY_PARKED);
+                return new Result(false, "Vehicle already parked (active).");
+            }
+            for (int sid : topology.sectionsFor(v.typeCode())) {
+                Section sec = sections[sid];
+                LogEntry le;
+                long ticket;
+                acquire(sec);
+                try {
+                    long s0 = Metrics.ENABLED ? System.nanoTime() : 0;
+                    int off = sec.free.first();
+                    if (Metrics.ENABLED) metrics.slotSearch.record(System.nanoTime() - s0);
+                    if (off < 0) continue;
+                    le = new LogEntry(intern(plate), v.typeCode(), sec, off, HistoryLog.epochSecond(entryTime));
+                    try { ticket = admit(sec, off, le); }
+                    catch (IOException ex) {
+                        activeByPlate.remove(plate, RESERVED);
+                        if (Metrics.ENABLED) metrics.failed(Metrics.IO_ERROR);
+                        return new Result(false, "Failed to record entry: " + ex.getMessage());
+                    }
+                } finally { sec.lock.unlock(); }
+                sync(ticket);
+                if (Metrics.ENABLED) metrics.parked(sid, System.nanoTime() - t0);
+                return new Result(true, "Parked " + plate + " at " + le.getSlotId() + " (" + v.getTypeName() + ") at " + entryTime.format(TF));
+            }
+            activeByPlate.remove(plate, RESERVED);
+            if (Metrics.ENABLED) metrics.failed(Metrics.NO_SLOT);
+            return new Result(false, "No available slot for type: " + v.getTypeName());
+        }
+        public UnparkResult unparkWithPayment(String plate, LocalDateTime exitTime) {
+            long t0 = Metrics.ENABLED ? System.nanoTime() : 0;
+            LogEntry active = activeByPlate.get(plate);
+            if (active == null || active == RESERVED) {
+                if (Metrics.ENABLED) metrics.failed(Metrics.NOT_ACTIVE);
+                return new UnparkResult(false, "No active parked vehicle with plate " + plate, null);
+            }
+            Section sec = sections[LotTopology.sectionOf(active.slot)];
+            int off = LotTopology.offsetOf(active.slot);
+            long minutes;
+            int billedHours;
+            long amount;
+            long ticket;
+            acquire(sec);
+            try {
+                // Exits for one entry all serialize on its slot's stripe; only the first one wins.
+                if (activeByPlate.get(plate) != active) {
+                    if (Metrics.ENABLED) metrics.failed(Metrics.NOT_ACTIVE);
+                    return new UnparkResult(false, "No active parked vehicle with plate " + plate, null);
+                }
+                long exitSecond = HistoryLog.epochSecond(exitTime);
+                minutes = Math.floorDiv(exitSecond - active.entrySecond(), 60);
+                billedHours = Tariff.billedHours(minutes);
+                amount = tariff.feeCents(active.typeCode(), active.entrySecond(), billedHours);
+                try { ticket = discharge(sec, off, active, exitSecond, amount); }
+                catch (IOException ex) {
+                    if (Metrics.ENABLED) metrics.failed(Metrics.IO_ERROR);
+                    return new UnparkResult(false, "Failed to record exit: " + ex.getMessage(), null);
+                }
+            } finally { sec.lock.unlock(); }
+            sync(ticket);
+            if (Metrics.ENABLED) metrics.unparked(sec.id, System.nanoTime() - t0);
+            return new UnparkResult(true, String.format("Exited %s from %s | Duration: %d minutes | Amount: ₱%.2f", plate, active.getSlotId(), minutes, amount / 100.0),
                     new Receipt(plate, active.getVehicleTypeShort(), active.getSlotId(), active.getEntryTime(), active.getExitTime(), billedHours, amount));
         }
-        private double computeFee(String vehicleType, int hours) {
-            if (vehicleType.startsWith("Motorcycle")) {
-                int baseH = 3;
-                double base = 20.0;
-                double extraRate = 5.0;
-                if (hours <= baseH) return base;
-                return base + (hours - baseH) * extraRate;
-            } else {
-                int baseH = 3;
-                double base = 40.0;
-                double extraRate = 10.0;
-                if (hours <= baseH) return base;
-                return base + (hours - baseH) * extraRate;
+        // State changes of a park, made with sec's stripe held and the plate reserved; returns the
+        // journal ticket. Nothing has changed if this throws: a failed journal is caught before the
+        // history write, and a record the journal then refuses is discarded again.
+        private long admit(Section sec, int off, LogEntry le) throws IOException {
+            journal.checkUsable();
+            le.seq = history.append(le);
+            long ticket;
+            try { ticket = journal.append(Journal.PARK, le, le.entrySecond(), 0); }
+            catch (IOException ex) { history.discard(le.seq); throw ex; }
+            sec.occupants[off] = le;
+            sec.free.claim(off);
+            recent.add(le);
+            analytics.recordEntry(le.typeCode(), le.entrySecond());
+            activeByPlate.put(le.getPlate(), le);
+            plateIndex.add(le);
+            return ticket;
+        }
+        // State changes of an unpark, made with the entry's stripe held; returns the journal ticket.
+        // As with admit, nothing has changed if this throws.
+        private long discharge(Section sec, int off, LogEntry active, long exitSecond, long amount) throws IOException {
+            journal.checkUsable();
+            history.update(active.seq, exitSecond, amount);
+            long ticket;
+            try { ticket = journal.append(Journal.UNPARK, active, exitSecond, amount); }
+            catch (IOException ex) { history.update(active.seq, HistoryLog.ACTIVE, 0); throw ex; }
+            activeByPlate.remove(active.getPlate(), active);
+            plateIndex.remove(active);
+            sec.occupants[off] = null;
+            sec.free.release(off);
+            active.setExit(exitSecond, amount);
+            recent.exit(active.seq, exitSecond, amount);
+            revenueCents.add(amount);
+            analytics.recordExit(active.entrySecond(), exitSecond, amount);
+            return ticket;
+        }
+        // Applies gate events strictly in order under every stripe at once: one lock acquisition
+        // for the whole batch, history writes combined, one journal sync at the end. For gates
+        // reconnecting after an outage and camera-log replays; messages are formatted lazily.
+        public BatchResult applyBatch(List<GateEvent> events) {
+            long t0 = Metrics.ENABLED ? System.nanoTime() : 0;
+            BatchResult out = new BatchResult(events);
+            long ticket = 0;
+            IOException flushFailed = null;
+            lockAll();
+            try {
+                history.beginCombining();
+                try {
+                    for (int i = 0; i < events.size(); i++) {
+                        GateEvent ev = events.get(i);
+                        ticket = Math.max(ticket, ev.vehicle != null ? batchPark(ev, out, i) : batchUnpark(ev, out, i));
+                    }
+                } finally {
+                    try { history.endCombining(); } catch (IOException ex) { flushFailed = ex; }
+                }
+            } finally { unlockAll(); }
+            if (ticket > 0) sync(ticket);
+            if (flushFailed != null) throw new UncheckedIOException(flushFailed);
+            if (Metrics.ENABLED) {
+                metrics.batch(events.size(), System.nanoTime() - t0);
+                for (byte st : out.status) if (st != BatchResult.OK) metrics.failed(BATCH_FAILURES[st]);
+            }
+            return out;
+        }
+        private static final int[] BATCH_FAILURES = { -1, Metrics.ALREADY_PARKED, Metrics.NO_SLOT, Metrics.NOT_ACTIVE, Metrics.PLATE_TOO_LONG, Metrics.IO_ERROR };
+        private long batchPark(GateEvent ev, BatchResult out, int i) {
+            String plate = ev.plate;
+            if (plate.getBytes(StandardCharsets.UTF_8).length > HistoryLog.PLATE_MAX) { out.status[i] = BatchResult.PLATE_TOO_LONG; return 0; }
+            if (activeByPlate.putIfAbsent(plate, RESERVED) != null) { out.status[i] = BatchResult.DUPLICATE; return 0; }
+            for (int sid : topology.sectionsFor(ev.vehicle.typeCode())) {
+                Section sec = sections[sid];
+                int off = sec.free.first();
+                if (off < 0) continue;
+                LogEntry le = new LogEntry(intern(plate), ev.vehicle.typeCode(), sec, off, HistoryLog.epochSecond(ev.time));
+                try {
+                    long ticket = admit(sec, off, le);
+                    out.entries[i] = le;
+                    out.succeeded++;
+                    return ticket;
+                } catch (IOException ex) {
+                    activeByPlate.remove(plate, RESERVED);
+                    out.fail(i, "Failed to record entry: " + ex.getMessage());
+                    return 0;
+                }
             }
+            activeByPlate.remove(plate, RESERVED);
+            out.status[i] = BatchResult.NO_SLOT;
+            return 0;
+        }
+        private long batchUnpark(GateEvent ev, BatchResult out, int i) {
+            LogEntry active = activeByPlate.get(ev.plate);
+            if (active == null || active == RESERVED) { out.status[i] = BatchResult.NOT_ACTIVE; return 0; }
+            long exitSecond = HistoryLog.epochSecond(ev.time);
+            long amount = tariff.feeCents(active.typeCode(), active.entrySecond(), Tariff.billedHours(Math.floorDiv(exitSecond - active.entrySecond(), 60)));
+            try {
+                long ticket = discharge(sections[LotTopology.sectionOf(active.slot)], LotTopology.offsetOf(active.slot), active, exitSecond, amount);
+                out.entries[i] = active;
+                out.succeeded++;
+                return ticket;
+            } catch (IOException ex) {
+                out.fail(i, "Failed to record exit: " + ex.getMessage());
+                return 0;
+            }
+        }
+        public Tariff tariff() { return tariff; }
+        // Stays that end after this are priced with the new tariff; history keeps what was charged.
+        public void setTariff(Tariff t) { tariff = t; }
+        // What the full history would have earned under another tariff (parallel, read-only).
+        public Tariff.Repricing reprice(Tariff t) { return t.reprice(history); }
+        // Snapshot reads take every stripe in section order, so all counts come from one instant.
+        private void lockAll() { for (Section sec : sections) acquire(sec); }
+        private void unlockAll() { for (Section sec : sections) sec.lock.unlock(); }
+        // Counters are maintained by the free index under each stripe, so a snapshot is O(sections).
+        public OccupancySnapshot occupancySnapshot() {
+            int n = sections.length;
+            String[] prefixes = new String[n];
+            int[] totals = new int[n];
+            int[] occupied = new int[n];
+            int i = 0;
+            lockAll();
+            try {
+                for (Section sec : sections) { prefixes[i] = sec.prefix; totals[i] = sec.total(); occupied[i] = sec.occupied(); i++; }
+            } finally { unlockAll(); }
+            return new OccupancySnapshot(prefixes, totals, occupied);
         }
         public Map<String, Integer> vacancySummary() {
-            int mVac = (int) slots.values().stream().filter(s -> s.getId().startsWith("M") && !s.isOccupied()).count();
-            int aVac = (int) slots.values().stream().filter(s -> s.getId().startsWith("A") && !s.isOccupied()).count();
-            int bVac = (int) slots.values().stream().filter(s -> s.getId().startsWith("B") && !s.isOccupied()).count();
-            Map<String,Integer> m = new LinkedHashMap<>(); m.put("M", mVac); m.put("A", aVac); m.put("B", bVac); return m;
+            OccupancySnapshot snap = occupancySnapshot();
+            Map<String,Integer> m = new LinkedHashMap<>();
+            for (String p : snap.sections()) m.put(p, snap.vacant(p));
+            return m;
         }
-        public double occupancyRate() {
-            long total = slots.size();
-            long occ = slots.values().stream().filter(ParkingSlot::isOccupied).count();
-            return total == 0 ? 0.0 : (occ * 100.0 / total);
-        }
-        public int totalSlots() { return slots.size(); }
-        public int getActiveCount() { return activeByPlate.size(); }
-        public List<LogEntry> getRecentHistory(int limit) {
-            int size = history.size(); return history.stream().skip(Math.max(0, size - limit)).collect(java.util.stream.Collectors.toList());
-        }
-        public List<LogEntry> activeList() { return new ArrayList<>(activeByPlate.values()); }
-        public Map<Integer, Long> peakHours() {
-            Map<Integer, Long> counts = new TreeMap<>(); for (int h=0; h<24; h++) counts.put(h,0L);
-            for (LogEntry e : history) { int hour = e.getEntryTime().getHour(); counts.put(hour, counts.get(hour)+1); } return counts;
-        }
-        public String exportHistoryToCSV(String filepath) {
-            DateTimeFormatter f = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-            try (BufferedWriter w = new BufferedWriter(new FileWriter(filepath))) {
-                w.write("plate,vehicle_type,slot_id,entry_time,exit_time,duration_minutes,amount_paid\n");
-                for (LogEntry le : history) {
-                    String exit = le.getExitTime() == null ? "" : le.getExitTime().format(f);
-                    String paid = String.format("%.2f", le.getPaid());
-                    w.write(String.join(",", le.getPlate(), le.getVehicleTypeShort(), le.getSlotId(), le.getEntryTime().format(f), exit, String.valueOf(le.getDurationMinutes()), paid));
-                    w.write("\n");
-                }
+        public double occupancyRate() { return occupancySnapshot().occupancyRate(); }
+        public int totalSlots() { return topology.totalSlots(); }
+        public LotTopology topology() { return topology; }
+        public int getActiveCount() { return occupancySnapshot().totalUsed(); }
+        public Clock clock() { return clock; }
+        public LocalDateTime now() { return LocalDateTime.now(clock); }
+        public List<LogEntry> getRecentHistory(int limit) { return recent.newest(limit, sections); }
+        // Direct-mapped intern cache: a returning plate shares one String instead of one per visit.
+        private String intern(String plate) {
+            int i = plate.hashCode() & (PLATE_CACHE - 1);
+            String p = plates[i];
+            if (plate.equals(p)) return p;
+            plates[i] = plate;
+            return plate;
+        }
+        // Indexed active-vehicle lookups; pages are keyed by the last plate of the previous page.
+        public LogEntry findActive(String plate) { return plateIndex.exact(plate); }
+        public List<LogEntry> activePage(String after, int limit) { return plateIndex.prefix("", after, limit); }
+        public List<LogEntry> searchActivePrefix(String prefix, String after, int limit) { return plateIndex.prefix(prefix, after, limit); }
+        public List<LogEntry> searchActiveFuzzy(String plate, int limit) { return plateIndex.fuzzy(plate, limit); }
+        // Copied under every stripe, as occupancySnapshot is, so the list is the lot at one instant.
+        public List<LogEntry> activeList() {
+            List<LogEntry> res;
+            lockAll();
+            try {
+                res = new ArrayList<>(activeByPlate.size());
+                for (LogEntry le : activeByPlate.values()) if (le != RESERVED) res.add(le);
+            } finally { unlockAll(); }
+            res.sort(Comparator.comparingLong(le -> le.seq));
+            return res;
+        }
+        public Map<Integer, Long> peakHours() { return hourMap(analytics.hours()); }
+        public Map<Integer, Long> peakHours(int lastDays, LocalDate today) { return hourMap(analytics.hours(today.minusDays(lastDays - 1), today)); }
+        private static Map<Integer, Long> hourMap(long[] hours) {
+            Map<Integer, Long> counts = new TreeMap<>(); for (int h=0; h<24; h++) counts.put(h, hours[h]);
+            return counts;
+        }
+        public static int[] topHours(long[] hours, int n) {
+            int[] res = new int[Math.min(n, 24)];
+            boolean[] used = new boolean[24];
+            for (int i = 0; i < res.length; i++) {
+                int best = -1;
+                for (int h = 0; h < 24; h++) if (!used[h] && (best < 0 || hours[h] > hours[best])) best = h;
+                used[best] = true;
+                res[i] = best;
+            }
+            return res;
+        }
+        public Analytics analytics() { return analytics; }
+        public String exportHistoryToCSV(String filepath) { return exportHistoryToCSV(filepath, null, null, filepath.endsWith(".gz")); }
+        // Entries in [from, to) only; either bound may be null for open-ended.
+        public String exportHistoryToCSV(String filepath, LocalDateTime from, LocalDateTime to, boolean gzip) {
+            long t0 = Metrics.ENABLED ? System.nanoTime() : 0;
+            long rows;
+            try {
+                rows = CsvExport.run(history, Paths.get(filepath), from == null ? Long.MIN_VALUE : HistoryLog.epochSecond(from),
+                        to == null ? Long.MAX_VALUE : HistoryLog.epochSecond(to), gzip, HistoryLog.epochSecond(now()));
             } catch (Exception ex) { return "Failed to export: " + ex.getMessage(); }
-            return "Exported history to: " + filepath;
+            if (Metrics.ENABLED) metrics.export.record(System.nanoTime() - t0);
+            return "Exported history to: " + filepath + " (" + rows + " rows)";
+        }
+        public int countUsedByPrefix(String prefix) {
+            Section sec = byPrefix.get(prefix);
+            if (sec == null) return 0;
+            acquire(sec);
+            try { return sec.occupied(); } finally { sec.lock.unlock(); }
+        }
+        private int totalOf(String prefix) { Section sec = byPrefix.get(prefix); return sec == null ? 0 : sec.total(); }
+        public int totalMoto() { return totalOf("M"); }
+        public int totalA() { return totalOf("A"); }
+        public int totalB() { return totalOf("B"); }
+        public SlotMap slotMap(String prefix, int perLine) {
+            Section sec = byPrefix.get(prefix);
+            if (sec == null) return new SlotMap(prefix, 0, perLine, new long[0]);
+            long[] bits;
+            acquire(sec);
+            try { bits = sec.free.occupiedBits(); } finally { sec.lock.unlock(); }
+            return new SlotMap(prefix, sec.total(), perLine, bits);
+        }
+        public boolean isOccupied(String id) {
+            int slot = slotOf(id);
+            return slot >= 0 && sections[LotTopology.sectionOf(slot)].occupants[LotTopology.offsetOf(slot)] != null;
         }
-        public int countUsedByPrefix(String prefix) { return (int) slots.values().stream().filter(s->s.getId().startsWith(prefix)&&s.isOccupied()).count(); }
-        public int totalMoto() { return (int) slots.values().stream().filter(s->s.getId().startsWith("M")).count(); }
-        public int totalA() { return (int) slots.values().stream().filter(s->s.getId().startsWith("A")).count(); }
-        public int totalB() { return (int) slots.values().stream().filter(s->s.getId().startsWith("B")).count(); }
-        public boolean isOccupied(String id) { ParkingSlot p = slots.get(id); return p != null && p.isOccupied(); }
         public List<String> slotIdsByPrefix(String prefix) {
-            List<String> res = new ArrayList<>();
-            for (String k : slots.keySet()) if (k.startsWith(prefix)) res.add(k);
+            Section sec = byPrefix.get(prefix);
+            if (sec == null) return new ArrayList<>();
+            List<String> res = new ArrayList<>(sec.total());
+            for (int i = 0; i < sec.total(); i++) res.add(sec.slotId(i));
             return res;
         }
-        public int totalRevenue() { return (int)Math.round(revenue); }
+        public long totalRevenueCents() { return revenueCents.sum(); }
+        public double totalRevenue() { return revenueCents.sum() / 100.0; }
+        public Metrics metrics() { return metrics; }
+        public void close() {
+            metrics.unregister();
+            try { snapshot(); journal.close(); history.force(); history.close(); } catch (IOException ex) { throw new UncheckedIOException(ex); }
+        }
     }
 }